@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.Arrays;
+import org.bukkit.attribute.Attribute;
+import org.bukkit.attribute.AttributeInstance;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.potion.PotionEffect;
+
+/**
+ * Runs the periodic abilities of all entities from a single task.
+ * <p>
+ * Scheduled activations are kept in a timing wheel with one bucket per tick, so a tick only looks at the activations
+ * due in it. Activations further away than one turn of the wheel wait for the remaining turns in their bucket. The
+ * activations themselves are stored in parallel arrays and their slots are reused, entities that are no longer valid
+ * are dropped when their next activation comes up. Must only be used from the main thread.
+ */
+public final class AbilityScheduler implements Runnable {
+
+	private static final int WHEEL_BITS = 8;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private final int[][] buckets = new int[WHEEL_SIZE][];
+	private final int[] bucketSizes = new int[WHEEL_SIZE];
+	private int[] spareBucket = new int[16];
+	private int tick = 0;
+
+	private LivingEntity[] entities = new LivingEntity[64];
+	private PotionEffect[] effects = new PotionEffect[64];
+	private double[] heals = new double[64];
+	private int[] intervals = new int[64];
+	private int[] rounds = new int[64];
+	private int[] freeSlots = new int[64];
+	private int freeCount = 0;
+	private int used = 0;
+	private int active = 0;
+
+	public AbilityScheduler () {
+		for (int bucket = 0; bucket < WHEEL_SIZE; bucket++) {
+			this.buckets[bucket] = new int[16];
+		}
+	}
+
+	/**
+	 * Schedules an ability that is activated every interval ticks until the entity is no longer valid.
+	 *
+	 * @param entity   entity with the ability
+	 * @param interval ticks between two activations, at least 1
+	 * @param heal     health restored on activation
+	 * @param effect   effect applied on activation or null
+	 */
+	public void schedule (LivingEntity entity, int interval, double heal, PotionEffect effect) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		int slot = allocate();
+		this.entities[slot] = entity;
+		this.effects[slot] = effect;
+		this.heals[slot] = heal;
+		this.intervals[slot] = interval;
+		insert(slot);
+		this.active++;
+	}
+
+	/**
+	 * Amount of scheduled abilities, including the ones of entities that became invalid since their last activation.
+	 *
+	 * @return amount of scheduled abilities
+	 */
+	public int size () {
+		return this.active;
+	}
+
+	@Override
+	public void run () {
+		int bucket = ++this.tick & WHEEL_MASK;
+		int[] due = this.buckets[bucket];
+		int dueCount = this.bucketSizes[bucket];
+		this.buckets[bucket] = this.spareBucket;
+		this.bucketSizes[bucket] = 0;
+		for (int index = 0; index < dueCount; index++) {
+			int slot = due[index];
+			if (this.rounds[slot] > 0) {
+				this.rounds[slot]--;
+				add(bucket, slot);
+				continue;
+			}
+			LivingEntity entity = this.entities[slot];
+			if (!entity.isValid()) {
+				release(slot);
+				continue;
+			}
+			activate(slot, entity);
+			insert(slot);
+		}
+		this.spareBucket = due;
+	}
+
+	private void activate (int slot, LivingEntity entity) {
+		if (this.heals[slot] > 0) {
+			AttributeInstance maxHealth = entity.getAttribute(Attribute.GENERIC_MAX_HEALTH);
+			double health = entity.getHealth() + this.heals[slot];
+			entity.setHealth(maxHealth == null ? health : Math.min(maxHealth.getValue(), health));
+		}
+		if (this.effects[slot] != null) {
+			entity.addPotionEffect(this.effects[slot], true);
+		}
+	}
+
+	private void insert (int slot) {
+		int interval = this.intervals[slot];
+		this.rounds[slot] = (interval - 1) >>> WHEEL_BITS;
+		add((this.tick + interval) & WHEEL_MASK, slot);
+	}
+
+	private void add (int bucket, int slot) {
+		int size = this.bucketSizes[bucket];
+		if (size == this.buckets[bucket].length) {
+			this.buckets[bucket] = Arrays.copyOf(this.buckets[bucket], size * 2);
+		}
+		this.buckets[bucket][size] = slot;
+		this.bucketSizes[bucket] = size + 1;
+	}
+
+	private int allocate () {
+		if (this.freeCount > 0) {
+			return this.freeSlots[--this.freeCount];
+		}
+		if (this.used == this.entities.length) {
+			int capacity = this.used * 2;
+			this.entities = Arrays.copyOf(this.entities, capacity);
+			this.effects = Arrays.copyOf(this.effects, capacity);
+			this.heals = Arrays.copyOf(this.heals, capacity);
+			this.intervals = Arrays.copyOf(this.intervals, capacity);
+			this.rounds = Arrays.copyOf(this.rounds, capacity);
+			this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+		}
+		return this.used++;
+	}
+
+	private void release (int slot) {
+		this.entities[slot] = null;
+		this.effects[slot] = null;
+		this.freeSlots[this.freeCount++] = slot;
+		this.active--;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.potion.PotionEffect;
+
+/**
+ * Periodic ability, every activation heals the entity and/or applies an effect. Interval, heal amount and effect are
+ * calculated once at spawn, the activations are run by the {@link AbilityScheduler}.
+ */
+public class AbilityVariation {
+
+	private final String abilityName;
+	private final AbilityScheduler scheduler;
+	private CalculationNode intervalCalculation;
+	private CalculationNode healCalculation = null;
+	private EffectVariation effect = null;
+
+	public AbilityVariation (String abilityName, AbilityScheduler scheduler, Expression interval) {
+		this.abilityName = Objects.requireNonNull(abilityName);
+		this.scheduler = Objects.requireNonNull(scheduler);
+		this.intervalCalculation = new CalculationNode("interval", Objects.requireNonNull(interval));
+	}
+
+	public String getName () {
+		return this.abilityName;
+	}
+
+	public void setHeal (Expression heal) {
+		this.healCalculation = new CalculationNode("heal", Objects.requireNonNull(heal));
+	}
+
+	public void setEffect (EffectVariation effect) {
+		this.effect = effect;
+	}
+
+	public void schedule (LivingEntity entity, Map<String, Double> variables) {
+		Consumer<LivingEntity> schedule = prepare(variables);
+		if (schedule != null) {
+			schedule.accept(entity);
+		}
+	}
+
+	/**
+	 * Calculates the ability without scheduling it.
+	 *
+	 * @param variables variables of the spawn
+	 * @return change that schedules the ability for an entity or null if the ability does nothing
+	 */
+	Consumer<LivingEntity> prepare (Map<String, Double> variables) {
+		double heal = this.healCalculation == null ? 0 : this.healCalculation.calculateVariable(variables);
+		PotionEffect potionEffect = this.effect == null ? null : this.effect.createEffect(variables);
+		if (heal <= 0 && potionEffect == null) {
+			return null;
+		}
+		int interval = Math.toIntExact(Math.round(this.intervalCalculation.calculateVariable(variables)));
+		return entity -> this.scheduler.schedule(entity, Math.max(1, interval), Math.max(0, heal), potionEffect);
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = 7;
+		hash = 67 * hash + Objects.hashCode(this.abilityName);
+		return hash;
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final AbilityVariation other = (AbilityVariation) obj;
+		return Objects.equals(this.abilityName, other.getName());
+	}
+
+	/**
+	 * Puts all calculations of this ability into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this ability
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".interval", this.intervalCalculation);
+		if (this.healCalculation != null) {
+			calculations.put(path + ".heal", this.healCalculation);
+		}
+		if (this.effect != null) {
+			this.effect.collectCalculations(path + ".effect", calculations);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Caches biome, light and block type of loaded chunks in compact arrays.
+ * <p>
+ * A chunk is copied from a {@link ChunkSnapshot} the first time a spawn happens in it and again once its copy got
+ * older than the refresh interval. Afterwards spawns read plain array entries. Copies are evicted when their chunk or
+ * world unloads and when a world holds more than the configured amount of chunks.
+ * <p>
+ * Biomes are provided by their vanilla id, which differs from the order of {@link Biome}, biomes without a known id
+ * read as 255.
+ */
+public final class ChunkContextCache implements Listener, SpawnVariableProvider {
+
+	public static final String BIOME = "biome";
+	public static final String BLOCK_LIGHT = "blockLight";
+	public static final String SKY_LIGHT = "skyLight";
+	public static final String BLOCK_TYPE = "blockType";
+
+	public static final Set<String> PROVIDED_VARIABLES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			BIOME, BLOCK_LIGHT, SKY_LIGHT, BLOCK_TYPE)));
+
+	private static final long NANOS_PER_TICK = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final byte[] BIOME_IDS = createBiomeIds();
+
+	private final Map<String, Map<Long, ChunkContext>> worlds = new HashMap<>();
+
+	private long maximumAge = 200 * NANOS_PER_TICK;
+	private int maximumChunks = 256;
+
+	public ChunkContextCache () {
+	}
+
+	/**
+	 * Sets after how many ticks a cached chunk gets copied again.
+	 *
+	 * @param ticks refresh interval in ticks
+	 */
+	public void setRefreshInterval (int ticks) {
+		if (ticks < 1) {
+			throw new IllegalArgumentException("refresh interval must be positive");
+		}
+		this.maximumAge = ticks * NANOS_PER_TICK;
+	}
+
+	/**
+	 * Sets how many chunks per world are cached at most, least recently used chunks are evicted first.
+	 *
+	 * @param chunks maximum amount of cached chunks per world
+	 */
+	public void setMaximumChunks (int chunks) {
+		if (chunks < 1) {
+			throw new IllegalArgumentException("maximum chunks must be positive");
+		}
+		this.maximumChunks = chunks;
+		this.worlds.clear();
+	}
+
+	@Override
+	public Set<String> getProvidedVariables () {
+		return PROVIDED_VARIABLES;
+	}
+
+	@Override
+	public void provideVariables (Location location, Map<String, Double> variables) {
+		World world = location.getWorld();
+		int blockX = location.getBlockX();
+		int blockY = Math.max(0, Math.min(world.getMaxHeight() - 1, location.getBlockY()));
+		int blockZ = location.getBlockZ();
+		ChunkContext context = getContext(world, blockX >> 4, blockZ >> 4);
+		int column = (blockZ & 15) << 4 | (blockX & 15);
+		int section = blockY >> 4;
+		int index = (blockY & 15) << 8 | column;
+		variables.put(BIOME, (double) (context.biomes[column] & 0xFF));
+		variables.put(BLOCK_TYPE, (double) ChunkContext.read(context.types[section], index, 0));
+		variables.put(BLOCK_LIGHT, (double) ChunkContext.readNibble(context.blockLight[section], index, 0));
+		int openSkyLight = context.sky && blockY >= context.heights[column] ? 15 : 0;
+		variables.put(SKY_LIGHT, (double) ChunkContext.readNibble(context.skyLight[section], index, openSkyLight));
+	}
+
+	@Override
+	public void provideDefaultVariables (Map<String, Double> variables) {
+		variables.put(BIOME, 0d);
+		variables.put(BLOCK_TYPE, 0d);
+		variables.put(BLOCK_LIGHT, 0d);
+		variables.put(SKY_LIGHT, 15d);
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload (final ChunkUnloadEvent event) {
+		Map<Long, ChunkContext> chunks = this.worlds.get(event.getWorld().getName());
+		if (chunks != null) {
+			chunks.remove(chunkKey(event.getChunk().getX(), event.getChunk().getZ()));
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload (final WorldUnloadEvent event) {
+		this.worlds.remove(event.getWorld().getName());
+	}
+
+	private ChunkContext getContext (World world, int chunkX, int chunkZ) {
+		Map<Long, ChunkContext> chunks = this.worlds.get(world.getName());
+		if (chunks == null) {
+			chunks = new ChunkContextMap(this.maximumChunks);
+			this.worlds.put(world.getName(), chunks);
+		}
+		long key = chunkKey(chunkX, chunkZ);
+		ChunkContext context = chunks.get(key);
+		long now = System.nanoTime();
+		if (context == null || now - context.created > this.maximumAge) {
+			context = new ChunkContext(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, true, false),
+									   world.getMaxHeight() >> 4, world.getEnvironment() == World.Environment.NORMAL, now);
+			chunks.put(key, context);
+		}
+		return context;
+	}
+
+	private static long chunkKey (int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	private static byte[] createBiomeIds () {
+		String[] sequential = {"OCEAN", "PLAINS", "DESERT", "EXTREME_HILLS", "FOREST", "TAIGA", "SWAMPLAND", "RIVER",
+							   "HELL", "SKY", "FROZEN_OCEAN", "FROZEN_RIVER", "ICE_FLATS", "ICE_MOUNTAINS",
+							   "MUSHROOM_ISLAND", "MUSHROOM_ISLAND_SHORE", "BEACHES", "DESERT_HILLS", "FOREST_HILLS",
+							   "TAIGA_HILLS", "SMALLER_EXTREME_HILLS", "JUNGLE", "JUNGLE_HILLS", "JUNGLE_EDGE",
+							   "DEEP_OCEAN", "STONE_BEACH", "COLD_BEACH", "BIRCH_FOREST", "BIRCH_FOREST_HILLS",
+							   "ROOFED_FOREST", "TAIGA_COLD", "TAIGA_COLD_HILLS", "REDWOOD_TAIGA", "REDWOOD_TAIGA_HILLS",
+							   "EXTREME_HILLS_WITH_TREES", "SAVANNA", "SAVANNA_ROCK", "MESA", "MESA_ROCK",
+							   "MESA_CLEAR_ROCK"};
+		Map<String, Integer> ids = new HashMap<>();
+		for (int id = 0; id < sequential.length; id++) {
+			ids.put(sequential[id], id);
+		}
+		ids.put("VOID", 127);
+		ids.put("MUTATED_PLAINS", 129);
+		ids.put("MUTATED_DESERT", 130);
+		ids.put("MUTATED_EXTREME_HILLS", 131);
+		ids.put("MUTATED_FOREST", 132);
+		ids.put("MUTATED_TAIGA", 133);
+		ids.put("MUTATED_SWAMPLAND", 134);
+		ids.put("MUTATED_ICE_FLATS", 140);
+		ids.put("MUTATED_JUNGLE", 149);
+		ids.put("MUTATED_JUNGLE_EDGE", 151);
+		ids.put("MUTATED_BIRCH_FOREST", 155);
+		ids.put("MUTATED_BIRCH_FOREST_HILLS", 156);
+		ids.put("MUTATED_ROOFED_FOREST", 157);
+		ids.put("MUTATED_TAIGA_COLD", 158);
+		ids.put("MUTATED_REDWOOD_TAIGA", 160);
+		ids.put("MUTATED_REDWOOD_TAIGA_HILLS", 161);
+		ids.put("MUTATED_EXTREME_HILLS_WITH_TREES", 162);
+		ids.put("MUTATED_SAVANNA", 163);
+		ids.put("MUTATED_SAVANNA_ROCK", 164);
+		ids.put("MUTATED_MESA", 165);
+		ids.put("MUTATED_MESA_ROCK", 166);
+		ids.put("MUTATED_MESA_CLEAR_ROCK", 167);
+		Biome[] biomes = Biome.values();
+		byte[] biomeIds = new byte[biomes.length];
+		for (Biome biome : biomes) {
+			biomeIds[biome.ordinal()] = (byte) (int) ids.getOrDefault(biome.name(), 255);
+		}
+		return biomeIds;
+	}
+
+	private static final class ChunkContextMap extends LinkedHashMap<Long, ChunkContext> {
+
+		private static final long serialVersionUID = 6011620853458470781L;
+
+		private final int maximumChunks;
+
+		private ChunkContextMap (int maximumChunks) {
+			super(16, 0.75f, true);
+			this.maximumChunks = maximumChunks;
+		}
+
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<Long, ChunkContext> eldest) {
+			return size() > this.maximumChunks;
+		}
+	}
+
+	/**
+	 * Compact copy of a chunk. Block type ids all fit into a byte. Sections without blocks are not stored and read as
+	 * air and no block light, their sky light is full above the highest block of the column and none below, like in
+	 * vanilla.
+	 */
+	private static final class ChunkContext {
+
+		private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+		private final byte[] biomes = new byte[16 * 16];
+		private final short[] heights = new short[16 * 16];
+		private final boolean sky;
+		private final byte[][] types;
+		private final byte[][] blockLight;
+		private final byte[][] skyLight;
+		private final long created;
+
+		private ChunkContext (ChunkSnapshot snapshot, int sections, boolean sky, long created) {
+			this.types = new byte[sections][];
+			this.blockLight = new byte[sections][];
+			this.skyLight = new byte[sections][];
+			this.sky = sky;
+			this.created = created;
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					this.biomes[z << 4 | x] = BIOME_IDS[snapshot.getBiome(x, z).ordinal()];
+					this.heights[z << 4 | x] = (short) snapshot.getHighestBlockYAt(x, z);
+				}
+			}
+			for (int section = 0; section < sections; section++) {
+				if (snapshot.isSectionEmpty(section)) {
+					continue;
+				}
+				byte[] sectionTypes = new byte[SECTION_VOLUME];
+				byte[] sectionBlockLight = new byte[SECTION_VOLUME >> 1];
+				byte[] sectionSkyLight = new byte[SECTION_VOLUME >> 1];
+				for (int index = 0; index < SECTION_VOLUME; index++) {
+					int x = index & 15;
+					int z = (index >> 4) & 15;
+					int y = section << 4 | index >> 8;
+					sectionTypes[index] = (byte) snapshot.getBlockTypeId(x, y, z);
+					writeNibble(sectionBlockLight, index, snapshot.getBlockEmittedLight(x, y, z));
+					writeNibble(sectionSkyLight, index, snapshot.getBlockSkyLight(x, y, z));
+				}
+				this.types[section] = sectionTypes;
+				this.blockLight[section] = sectionBlockLight;
+				this.skyLight[section] = sectionSkyLight;
+			}
+		}
+
+		private static int read (byte[] section, int index, int empty) {
+			return section == null ? empty : section[index] & 0xFF;
+		}
+
+		private static int readNibble (byte[] section, int index, int empty) {
+			return section == null ? empty : (section[index >> 1] >> ((index & 1) << 2)) & 0xF;
+		}
+
+		private static void writeNibble (byte[] section, int index, int value) {
+			section[index >> 1] |= (value & 0xF) << ((index & 1) << 2);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
+
+/**
+ * Finds expressions that would fail at spawn time by evaluating every calculation of the parsed variations across the
+ * level range, and estimates how long the calculations of a spawn take.
+ * <p>
+ * Failing calculations, failing loot rolls and weights that are negative or add up to zero are errors, results that
+ * are not a number and spawns exceeding the cost budget are warnings. Variables other than the level get the neutral
+ * values of the variable providers, so problems of calculations using them are only warnings, the values at runtime
+ * differ. The cost of an entity type is the measured time of all weights plus the calculations of its most expensive
+ * variation.
+ * <p>
+ * Every calculation is evaluated once per sampled level, only a few levels are timed and used for loot rolls, which
+ * keeps the analysis of a reload short.
+ */
+public final class ConfigurationAnalyzer {
+
+	private static final int MAXIMUM_SAMPLES = 101;
+	private static final int TIMED_SAMPLES = 11;
+	private static final int PASSES = 3;
+
+	private final Map<String, Double> defaults = new HashMap<>();
+	private final int[] levels;
+	private final int timingStride;
+	private final double costBudget;
+	private final Set<String> errors = new LinkedHashSet<>();
+	private final Set<String> warnings = new LinkedHashSet<>();
+	private final Map<String, Long> analyzedCosts = new HashMap<>();
+	private final Map<EntityType, Double> costs = new EnumMap<>(EntityType.class);
+
+	/**
+	 * Creates an analyzer.
+	 *
+	 * @param variables    variables the calculations may use, 0 unless they have a default
+	 * @param defaults     neutral values of the variables, like {@link SpawnVariableProvider#provideDefaultVariables}
+	 * @param maximumLevel highest level to evaluate
+	 * @param costBudget   microseconds the calculations of a spawn may take
+	 */
+	public ConfigurationAnalyzer (Set<String> variables, Map<String, Double> defaults, int maximumLevel, double costBudget) {
+		if (maximumLevel < 0) {
+			throw new IllegalArgumentException("maximum level must not be negative");
+		}
+		for (String variable : variables) {
+			this.defaults.put(variable, 0.0);
+		}
+		this.defaults.putAll(defaults);
+		int samples = Math.min(maximumLevel + 1, MAXIMUM_SAMPLES);
+		this.levels = new int[samples];
+		for (int sample = 0; sample < samples; sample++) {
+			this.levels[sample] = samples == 1 ? 0 : (int) ((long) maximumLevel * sample / (samples - 1));
+		}
+		this.timingStride = (samples + TIMED_SAMPLES - 1) / TIMED_SAMPLES;
+		this.costBudget = costBudget;
+	}
+
+	/**
+	 * Analyzes the variations of all entity types.
+	 *
+	 * @param entities variations per entity type
+	 */
+	public void analyze (Map<EntityType, Set<EntityVariation>> entities) {
+		for (Map.Entry<EntityType, Set<EntityVariation>> entity : entities.entrySet()) {
+			EntityType type = entity.getKey();
+			Map<EntityVariation, int[]> weights = new LinkedHashMap<>();
+			long weightCost = 0;
+			long maximumVariationCost = 0;
+			for (EntityVariation variation : entity.getValue()) {
+				String path = "entities." + type + "." + variation.getName();
+				int[] variationWeights = new int[this.levels.length];
+				weightCost += analyzeWeight(path, variation, variationWeights);
+				weights.put(variation, variationWeights);
+				Map<String, CalculationNode> calculations = new LinkedHashMap<>();
+				variation.collectCalculations(path, calculations);
+				long variationCost = 0;
+				boolean usesSurroundings = false;
+				for (Map.Entry<String, CalculationNode> calculation : calculations.entrySet()) {
+					if (calculation.getValue() != null) {
+						variationCost += analyzeCalculation(calculation.getKey(), calculation.getValue());
+						usesSurroundings |= usesSurroundings(calculation.getValue().getRequiredVariables());
+					}
+				}
+				analyzeDeathData(path, variation, usesSurroundings);
+				maximumVariationCost = Math.max(maximumVariationCost, variationCost);
+			}
+			analyzeWeightSums(type, weights);
+			double cost = (weightCost + maximumVariationCost) / 1000.0;
+			this.costs.put(type, cost);
+			if (cost > this.costBudget) {
+				this.warnings.add(String.format("%s spawns take about %.1f microseconds to calculate, the budget is %.1f",
+												type, cost, this.costBudget));
+			}
+		}
+	}
+
+	public List<String> getErrors () {
+		return Collections.unmodifiableList(new ArrayList<>(this.errors));
+	}
+
+	public List<String> getWarnings () {
+		return Collections.unmodifiableList(new ArrayList<>(this.warnings));
+	}
+
+	/**
+	 * Returns the estimated time the calculations of a spawn take.
+	 *
+	 * @return microseconds per entity type
+	 */
+	public Map<EntityType, Double> getCosts () {
+		return Collections.unmodifiableMap(this.costs);
+	}
+
+	private Map<String, Double> createVariables (int level) {
+		Map<String, Double> sample = new HashMap<>(this.defaults);
+		sample.put("level", (double) level);
+		return sample;
+	}
+
+	private static boolean usesSurroundings (Set<String> requiredVariables) {
+		return requiredVariables.size() > (requiredVariables.contains("level") ? 1 : 0);
+	}
+
+	private void report (boolean usesSurroundings, String problem, RuntimeException cause) {
+		String message = cause == null ? problem : problem + ": " + describe(cause);
+		if (usesSurroundings) {
+			this.warnings.add(message.replaceFirst(" at level ", " with neutral surroundings at level "));
+		} else {
+			this.errors.add(message);
+		}
+	}
+
+	private boolean isTimed (int sample) {
+		return sample % this.timingStride == 0;
+	}
+
+	private long analyzeWeight (String path, EntityVariation variation, int[] weights) {
+		boolean usesSurroundings = usesSurroundings(variation.getWeightVariables());
+		long[] times = new long[TIMED_SAMPLES];
+		int timed = 0;
+		boolean reported = false;
+		for (int sample = 0; sample < this.levels.length; sample++) {
+			Map<String, Double> sampleVariables = createVariables(this.levels[sample]);
+			double weight;
+			try {
+				if (isTimed(sample)) {
+					times[timed] = Long.MAX_VALUE;
+					weight = 0;
+					for (int pass = 0; pass < PASSES; pass++) {
+						long start = System.nanoTime();
+						weight = variation.calculateWeight(sampleVariables);
+						times[timed] = Math.min(times[timed], System.nanoTime() - start);
+					}
+					timed++;
+				} else {
+					weight = variation.calculateWeight(sampleVariables);
+				}
+				weights[sample] = Math.toIntExact(Math.round(weight));
+			} catch (RuntimeException exception) {
+				report(usesSurroundings, path + ".weight fails at level " + this.levels[sample], exception);
+				return median(times, timed);
+			}
+			if (reported) {
+				continue;
+			}
+			if (Double.isNaN(weight)) {
+				this.warnings.add(path + ".weight is not a number at level " + this.levels[sample]);
+				reported = true;
+			} else if (weights[sample] < 0) {
+				report(usesSurroundings, path + ".weight is negative at level " + this.levels[sample], null);
+				reported = true;
+			}
+		}
+		return median(times, timed);
+	}
+
+	private long analyzeCalculation (String path, CalculationNode calculation) {
+		Long analyzed = this.analyzedCosts.get(path);
+		if (analyzed != null) {
+			return analyzed;
+		}
+		boolean usesSurroundings = usesSurroundings(calculation.getRequiredVariables());
+		long[] times = new long[TIMED_SAMPLES];
+		int timed = 0;
+		boolean reported = false;
+		for (int sample = 0; sample < this.levels.length; sample++) {
+			Map<String, Double> sampleVariables = createVariables(this.levels[sample]);
+			double value;
+			try {
+				if (isTimed(sample)) {
+					times[timed] = Long.MAX_VALUE;
+					value = 0;
+					for (int pass = 0; pass < PASSES; pass++) {
+						long start = System.nanoTime();
+						value = calculation.calculateVariable(sampleVariables);
+						times[timed] = Math.min(times[timed], System.nanoTime() - start);
+					}
+					timed++;
+				} else {
+					value = calculation.calculateVariable(sampleVariables);
+				}
+			} catch (RuntimeException exception) {
+				report(usesSurroundings, path + " fails at level " + this.levels[sample], exception);
+				break;
+			}
+			if (!reported && (Double.isNaN(value) || Double.isInfinite(value))) {
+				this.warnings.add(path + " is not a number at level " + this.levels[sample]);
+				reported = true;
+			}
+		}
+		long cost = median(times, timed);
+		this.analyzedCosts.put(path, cost);
+		return cost;
+	}
+
+	private void analyzeDeathData (String path, EntityVariation variation, boolean usesSurroundings) {
+		for (int sample = 0; sample < this.levels.length; sample += this.timingStride) {
+			int level = this.levels[sample];
+			try {
+				variation.createDeathData(createVariables(level), level);
+			} catch (RuntimeException exception) {
+				report(usesSurroundings, path + " fails to roll loot at level " + level, exception);
+				return;
+			}
+		}
+	}
+
+	private void analyzeWeightSums (EntityType type, Map<EntityVariation, int[]> weights) {
+		Map<Set<EntityVariation>, Set<SpawnReason>> groups = new LinkedHashMap<>();
+		for (SpawnReason reason : SpawnReason.values()) {
+			Set<EntityVariation> group = new HashSet<>();
+			for (EntityVariation variation : weights.keySet()) {
+				if (variation.allowsSpawnReason(reason)) {
+					group.add(variation);
+				}
+			}
+			if (!group.isEmpty()) {
+				groups.computeIfAbsent(group, key -> new LinkedHashSet<>()).add(reason);
+			}
+		}
+		for (Map.Entry<Set<EntityVariation>, Set<SpawnReason>> group : groups.entrySet()) {
+			for (int sample = 0; sample < this.levels.length; sample++) {
+				long total = 0;
+				boolean usesSurroundings = false;
+				for (EntityVariation variation : group.getKey()) {
+					total += weights.get(variation)[sample];
+					usesSurroundings |= usesSurroundings(variation.getWeightVariables());
+				}
+				if (total <= 0 || total > Integer.MAX_VALUE) {
+					String reasons = group.getValue().size() == SpawnReason.values().length ? "all spawn reasons"
+									 : "spawn reasons " + group.getValue();
+					report(usesSurroundings, "weights of the " + type + " variations for " + reasons + " add up to "
+											 + total + " at level " + this.levels[sample], null);
+					break;
+				}
+			}
+		}
+	}
+
+	private static long median (long[] times, int samples) {
+		if (samples == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(times, samples);
+		Arrays.sort(sorted);
+		return sorted[samples / 2];
+	}
+
+	private static String describe (RuntimeException exception) {
+		return exception.getMessage() == null ? exception.getClass().getSimpleName() : exception.getMessage();
+	}
+}
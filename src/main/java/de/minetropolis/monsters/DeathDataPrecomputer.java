@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.bukkit.attribute.Attribute;
+import org.bukkit.attribute.AttributeInstance;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.metadata.FixedMetadataValue;
+import org.bukkit.metadata.MetadataValue;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Rolls the death data of entities on a worker thread once they are damaged below a share of their max health, so
+ * their death only has to hand over the drops. Entities that die before the roll is done, or in one hit, get their
+ * death data rolled on death like before.
+ */
+public final class DeathDataPrecomputer implements Listener {
+
+	private final Plugin plugin;
+	private final MonsterSpawnEventListener spawnListener;
+	private ExecutorService worker = null;
+	private double healthShare = 0;
+
+	public DeathDataPrecomputer (Plugin plugin, MonsterSpawnEventListener spawnListener) {
+		this.plugin = plugin;
+		this.spawnListener = spawnListener;
+	}
+
+	/**
+	 * Sets the share of the max health below which the death data is rolled ahead. Variations only defer their death
+	 * data while this is enabled, see {@link EntityVariation#setDeferDeathData(boolean)}.
+	 *
+	 * @param healthShare share of the max health or 0 to disable
+	 */
+	public void setHealthShare (double healthShare) {
+		this.healthShare = healthShare;
+		if (healthShare > 0 && this.worker == null) {
+			this.worker = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "DynamicMonsters death data");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else if (healthShare <= 0) {
+			shutdown();
+		}
+	}
+
+	public boolean isEnabled () {
+		return this.healthShare > 0;
+	}
+
+	/**
+	 * Stops the worker thread, rolls that did not finish are rolled again on death.
+	 */
+	public void shutdown () {
+		if (this.worker != null) {
+			this.worker.shutdownNow();
+			this.worker = null;
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityDamage (final EntityDamageEvent event) {
+		if (this.worker == null || !(event.getEntity() instanceof LivingEntity)) {
+			return;
+		}
+		LivingEntity entity = (LivingEntity) event.getEntity();
+		double health = entity.getHealth() - event.getFinalDamage();
+		if (health <= 0) {
+			return;
+		}
+		AttributeInstance maxHealth = entity.getAttribute(Attribute.GENERIC_MAX_HEALTH);
+		if (maxHealth == null || health > maxHealth.getValue() * this.healthShare) {
+			return;
+		}
+		PendingDeathData pending = getPendingDeathData(entity);
+		if (pending != null) {
+			pending.precompute(this.worker);
+		}
+	}
+
+	/**
+	 * Returns the pending death data of the entity. Entities that lost their metadata in a chunk unload or restart
+	 * get new pending death data from their {@link MobState}, with the variables of their current location.
+	 */
+	private PendingDeathData getPendingDeathData (Entity entity) {
+		if (entity.hasMetadata("dynamicMonstersDrops")) {
+			MetadataValue meta = entity.getMetadata("dynamicMonstersDrops").get(0);
+			return meta.value() instanceof PendingDeathData ? (PendingDeathData) meta.value() : null;
+		}
+		Optional<MobState> state = MobState.of(entity);
+		if (!state.isPresent()) {
+			return null;
+		}
+		EntityVariation variation = this.spawnListener.getVariation(entity.getType(), state.get().getVariationId());
+		if (variation == null) {
+			return null;
+		}
+		Map<String, Double> variables = this.spawnListener.createVariables(entity.getLocation());
+		variables.put("level", (double) state.get().getLevel());
+		PendingDeathData pending = new PendingDeathData(variation, variables, state.get().getSeed());
+		entity.setMetadata("dynamicMonstersDrops", new FixedMetadataValue(this.plugin, pending));
+		return pending;
+	}
+}
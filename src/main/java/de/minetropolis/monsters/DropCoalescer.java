@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Merges the drops of one death into as few stacks as possible and limits the amount of dropped stacks. Every dropped
+ * stack becomes an item entity that has to be ticked, stacks above the limit are turned into experience instead.
+ */
+public class DropCoalescer {
+
+	private int maximumStacks = -1;
+	private double overflowExperience = 0;
+
+	/**
+	 * Sets the maximum amount of stacks per death.
+	 *
+	 * @param maximumStacks maximum amount of stacks, negative for no limit
+	 */
+	public void setMaximumStacks (int maximumStacks) {
+		this.maximumStacks = maximumStacks;
+	}
+
+	/**
+	 * Sets the experience granted for each item of the stacks above the limit.
+	 *
+	 * @param overflowExperience experience per item
+	 */
+	public void setOverflowExperience (double overflowExperience) {
+		this.overflowExperience = Math.max(0, overflowExperience);
+	}
+
+	/**
+	 * Merges similar drops into full stacks and removes the stacks above the limit.
+	 *
+	 * @param drops drops to coalesce, modified in place
+	 * @return experience for the removed items
+	 */
+	public int coalesce (List<ItemStack> drops) {
+		List<ItemStack> merged = new ArrayList<>(drops.size());
+		List<Long> amounts = new ArrayList<>(drops.size());
+		for (ItemStack drop : drops) {
+			if (drop == null || drop.getType() == Material.AIR || drop.getAmount() <= 0) {
+				continue;
+			}
+			int index = 0;
+			while (index < merged.size() && (merged.get(index).getType() != drop.getType() || !merged.get(index).isSimilar(drop))) {
+				index++;
+			}
+			if (index == merged.size()) {
+				merged.add(drop);
+				amounts.add((long) drop.getAmount());
+			} else {
+				amounts.set(index, amounts.get(index) + drop.getAmount());
+			}
+		}
+		drops.clear();
+		long overflow = 0;
+		for (int index = 0; index < merged.size(); index++) {
+			ItemStack drop = merged.get(index);
+			long amount = amounts.get(index);
+			int maxStackSize = Math.max(1, drop.getMaxStackSize());
+			while (amount > 0) {
+				if (this.maximumStacks >= 0 && drops.size() >= this.maximumStacks) {
+					overflow += amount;
+					break;
+				}
+				int stackAmount = (int) Math.min(amount, maxStackSize);
+				amount -= stackAmount;
+				ItemStack stack = drop.clone();
+				stack.setAmount(stackAmount);
+				drops.add(stack);
+			}
+		}
+		return Math.toIntExact(Math.min(Integer.MAX_VALUE, Math.round(overflow * this.overflowExperience)));
+	}
+}
@@ -23,6 +23,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import net.objecthunter.exp4j.Expression;
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -32,6 +33,7 @@ public class DropVariation {
     protected static final Random RANDOM = new Random();
 
     private final String variationName;
+    private String path = null;
     private String name = null;
     private List<String> lores = new ArrayList<>();
     private CalculationNode dropChanceCalculation;
@@ -50,8 +52,16 @@ public class DropVariation {
     }
 
     public static List<ItemStack> generateLoot (Collection<DropVariation> drops, Map<String, Double> variables) {
+        return generateLoot(drops, variables, RANDOM);
+    }
+
+    public static List<ItemStack> generateLoot (Collection<DropVariation> drops, Map<String, Double> variables, Random random) {
+        return generateLoot(drops, variables, random, null);
+    }
+
+    public static List<ItemStack> generateLoot (Collection<DropVariation> drops, Map<String, Double> variables, Random random, FailureMonitor monitor) {
         return drops.stream()
-                .map(drop -> drop.generateItemByChance(variables))
+                .map(drop -> drop.generateItemByChance(variables, random, monitor))
                 .filter(optional -> optional.isPresent())
                 .map(optional -> optional.get())
                 .collect(Collectors.toList());
@@ -89,6 +99,15 @@ public class DropVariation {
         this.name = name;
     }
 
+    /**
+     * Sets the path of the drop in the config, which tells same-named drops apart in failure reports.
+     *
+     * @param path path of the drop section
+     */
+    public void setPath (String path) {
+        this.path = path;
+    }
+
     public void setLore (String lorestring) {
         if (lorestring != null)
             lores.addAll(Arrays.asList(lorestring.split("\\\\n")));
@@ -119,7 +138,35 @@ public class DropVariation {
     }
 
     public Optional<ItemStack> generateItemByChance (Map<String, Double> variables) {
-        if (RANDOM.nextDouble() > calculateDropChance(variables)) {
+        return generateItemByChance(variables, RANDOM);
+    }
+
+    /**
+     * Rolls this drop. With a monitor, failures are counted and skip the drop instead of throwing, a drop disabled by
+     * the monitor never drops.
+     *
+     * @param variables variables of the entity
+     * @param random    random to roll with
+     * @param monitor   monitor of failures or null to throw failures
+     * @return item if it dropped
+     */
+    public Optional<ItemStack> generateItemByChance (Map<String, Double> variables, Random random, FailureMonitor monitor) {
+        if (monitor == null) {
+            return generateItemByChance(variables, random);
+        }
+        if (monitor.isOpen(this)) {
+            return Optional.empty();
+        }
+        try {
+            return generateItemByChance(variables, random);
+        } catch (RuntimeException exception) {
+            monitor.recordFailure(this, "Drop " + (this.path == null ? this.variationName : this.path), exception);
+            return Optional.empty();
+        }
+    }
+
+    public Optional<ItemStack> generateItemByChance (Map<String, Double> variables, Random random) {
+        if (random.nextDouble() > calculateDropChance(variables)) {
             return Optional.empty();
         }
         int amount = calculateAmount(variables);
@@ -127,12 +174,15 @@ public class DropVariation {
         byte data = calculateData(variables);
         @SuppressWarnings("deprecation")
         ItemStack item = new ItemStack(this.type, amount, damage, data);
-        ItemMeta itemMeta = item.getItemMeta();
-        if (this.name != null)
-            itemMeta.setDisplayName(name);
-        if (!lores.isEmpty())
-            itemMeta.setLore(lores);
-        item.setItemMeta(itemMeta);
+        // item meta needs a running server, simulations without one only count the items
+        if ((this.name != null || !lores.isEmpty()) && Bukkit.getServer() != null) {
+            ItemMeta itemMeta = item.getItemMeta();
+            if (this.name != null)
+                itemMeta.setDisplayName(name);
+            if (!lores.isEmpty())
+                itemMeta.setLore(lores);
+            item.setItemMeta(itemMeta);
+        }
         return Optional.of(item);
     }
 
@@ -157,4 +207,17 @@ public class DropVariation {
         final DropVariation other = (DropVariation) obj;
         return Objects.equals(this.variationName, other.getName());
     }
+
+    /**
+     * Puts all calculations of this drop into the map, keyed by their path in the config.
+     *
+     * @param path         path of this drop
+     * @param calculations map to fill
+     */
+    void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+        calculations.put(path + ".drop-chance", this.dropChanceCalculation);
+        calculations.put(path + ".amount", this.amountCalculation);
+        calculations.put(path + ".damage", this.damageCalculation);
+        calculations.put(path + ".data", this.dataCalculation);
+    }
 }
@@ -17,10 +17,19 @@
 package de.minetropolis.monsters;
 
 import de.minetropolis.monsters.configuration.ConfigurationParser;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 /**
@@ -28,8 +37,21 @@ import org.bukkit.plugin.java.JavaPlugin;
  */
 public final class DynamicMonstersPlugin extends JavaPlugin {
 	
-	final ConfigurationParser parser = new ConfigurationParser(this);
+	final AbilityScheduler abilityScheduler = new AbilityScheduler();
+	final ConfigurationParser parser = new ConfigurationParser(this, abilityScheduler);
 	final MonsterSpawnEventListener listener = new MonsterSpawnEventListener();
+	final PlayerProximityIndex playerIndex = new PlayerProximityIndex();
+	final WorldContextCache worldContext = new WorldContextCache();
+	final ChunkContextCache chunkContext = new ChunkContextCache();
+	final DropCoalescer dropCoalescer = new DropCoalescer();
+	final SpawnerOutcomeCache spawnerCache = new SpawnerOutcomeCache();
+	final RelevelQueue relevelQueue = new RelevelQueue(listener);
+	final WorldLevelService levelService = new WorldLevelService(listener);
+	final SpawnJournal journal = new SpawnJournal();
+	final DeathDataPrecomputer deathDataPrecomputer = new DeathDataPrecomputer(this, listener);
+	FailureMonitor failureMonitor;
+	LevelMapRenderer levelMapRenderer;
+	SpawnRecorder spawnRecorder;
 
 	/**
 	 *
@@ -40,21 +62,58 @@ public final class DynamicMonstersPlugin extends JavaPlugin {
 	@Override
 	public void onEnable () {
 		this.saveDefaultConfig();
-		final Set<String> configKeys = this.getConfig().getKeys(true);
-		this.getLogger().config("Dumping config keys:");
-		configKeys.forEach(key -> this.getLogger().config(key));
-
-		parser.parseCurrentConfig();
+		if (this.getLogger().isLoggable(Level.CONFIG)) {
+			final Set<String> configKeys = this.getConfig().getKeys(true);
+			this.getLogger().config("Dumping config keys:");
+			configKeys.forEach(key -> this.getLogger().config(key));
+		}
 
-		if (!parser.isParsed()) {
+		levelMapRenderer = new LevelMapRenderer(levelService, new File(getDataFolder(), "level-maps"), getLogger());
+		spawnRecorder = new SpawnRecorder(new File(getDataFolder(), "spawns.bin"), getLogger());
+		failureMonitor = new FailureMonitor(getLogger());
+		if (!parseConfig()) {
 			getLogger().log(Level.SEVERE, "Disabling plugin.");
 			setEnabled(false);
 			return;
 		}
 
+		playerIndex.rebuild(getServer().getOnlinePlayers());
+		listener.addVariableProvider(playerIndex);
+		listener.addVariableProvider(worldContext);
+		listener.addVariableProvider(chunkContext);
+		listener.setSpawnerCache(spawnerCache);
+		listener.setJournal(journal);
+		listener.setFailureMonitor(failureMonitor);
+		getServer().getScheduler().runTaskTimer(this, () -> worldContext.refresh(getServer().getWorlds()), 0L, 1L);
+		getServer().getScheduler().runTaskTimer(this, abilityScheduler, 1L, 1L);
+		getServer().getScheduler().runTaskTimer(this, relevelQueue, 1L, 1L);
+		getServer().getScheduler().runTaskTimer(this, spawnRecorder, 1L, 1L);
+		getServer().getScheduler().runTaskTimer(this, failureMonitor, 1L, 1L);
+
 		getServer().getPluginManager().registerEvents(listener, this);
-		getServer().getPluginManager().registerEvents(new MonsterDeathEventListener(), this);
+		getServer().getPluginManager().registerEvents(playerIndex, this);
+		getServer().getPluginManager().registerEvents(chunkContext, this);
+		getServer().getPluginManager().registerEvents(spawnerCache, this);
+		getServer().getPluginManager().registerEvents(relevelQueue, this);
+		getServer().getPluginManager().registerEvents(spawnRecorder, this);
+		getServer().getPluginManager().registerEvents(deathDataPrecomputer, this);
+		getServer().getPluginManager().registerEvents(new MonsterDeathEventListener(dropCoalescer, listener), this);
+		getServer().getServicesManager().register(LevelService.class, levelService, this, ServicePriority.Normal);
 		getCommand("dynamicMonstersReloadConfig").setExecutor(this::dynamicMonsterCommand);
+		getCommand("dynamicMonstersRenderLevels").setExecutor(this::renderLevelsCommand);
+		getCommand("dynamicMonstersDumpJournal").setExecutor(this::dumpJournalCommand);
+		getCommand("dynamicMonstersFailures").setExecutor(this::failuresCommand);
+	}
+
+	@Override
+	public void onDisable () {
+		if (levelMapRenderer != null) {
+			levelMapRenderer.shutdown();
+		}
+		if (spawnRecorder != null) {
+			spawnRecorder.close();
+		}
+		deathDataPrecomputer.shutdown();
 	}
 	
 	private boolean parseConfig() {
@@ -62,7 +121,27 @@ public final class DynamicMonstersPlugin extends JavaPlugin {
 		
 		if (parser.isParsed()) {
 			listener.setWorldsConfiguration(parser.getWorldsConfiguration());
+			levelService.setWorldsConfiguration(parser.getWorldsConfiguration());
 			listener.setEntitiesConfiguration(parser.getEntitiesConfiguration());
+			listener.setSpawnReasons(parser.getDefaultSpawnReasons(), parser.getWorldSpawnReasons());
+			playerIndex.setRadius(parser.getPlayerProximityRadius());
+			chunkContext.setRefreshInterval(parser.getChunkCacheRefreshInterval());
+			chunkContext.setMaximumChunks(parser.getChunkCacheMaximumChunks());
+			dropCoalescer.setMaximumStacks(parser.getDropMaximumStacks());
+			dropCoalescer.setOverflowExperience(parser.getDropOverflowExperience());
+			deathDataPrecomputer.setHealthShare(parser.getDropPrecomputeHealth());
+			spawnerCache.setTimeToLive(parser.getSpawnerCacheTimeToLive());
+			relevelQueue.setEnabled(parser.isRelevelEnabled());
+			relevelQueue.setBudget(parser.getRelevelBudget());
+			relevelQueue.sweep(getServer().getWorlds());
+			spawnRecorder.setEnabled(parser.isSpawnRecordingEnabled());
+			journal.setCapacity(parser.getJournalSize());
+			failureMonitor.setPolicy(parser.getFailureMaximum(), parser.getFailureWindow(), parser.getFailureCooldown());
+			failureMonitor.reset();
+			levelMapRenderer.setHeight(parser.getLevelMapHeight());
+			levelMapRenderer.setZoomLevels(parser.getLevelMapZoomLevels());
+			levelMapRenderer.setThreads(parser.getLevelMapThreads());
+			levelMapRenderer.setMaximumLevel(parser.getLevelMapMaximumLevel());
 		}
 
 		return parser.isParsed();
@@ -80,11 +159,108 @@ public final class DynamicMonstersPlugin extends JavaPlugin {
 	public boolean dynamicMonsterCommand (final CommandSender sender, final Command command,
 										  final String label, final String[] args) {
 		if (parseConfig()) {
-			sender.sendMessage("Reload successful.");
+			sender.sendMessage("Reload successful: " + parser.getReloadSummary());
 		} else {
 			sender.sendMessage("Reload failed! See log for details.");
 		}
 		return true;
 	}
 
+	/**
+	 * Renders the level map of an area: /<command> <world> <x1> <z1> <x2> <z2>
+	 *
+	 * @param sender
+	 * @param command
+	 * @param label
+	 * @param args
+	 * @return
+	 */
+	public boolean renderLevelsCommand (final CommandSender sender, final Command command,
+										final String label, final String[] args) {
+		if (args.length != 5) {
+			return false;
+		}
+		World world = getServer().getWorld(args[0]);
+		if (world == null) {
+			sender.sendMessage("Unknown world " + args[0] + ".");
+			return true;
+		}
+		int[] coordinates = new int[4];
+		try {
+			for (int index = 0; index < coordinates.length; index++) {
+				coordinates[index] = Integer.parseInt(args[index + 1]);
+			}
+		} catch (NumberFormatException exception) {
+			return false;
+		}
+		try {
+			if (levelMapRenderer.render(world, coordinates[0], coordinates[1], coordinates[2], coordinates[3],
+										message -> getServer().getScheduler().runTask(this, () -> sender.sendMessage(message)))) {
+				sender.sendMessage("Rendering level map of " + world.getName() + "...");
+			} else {
+				sender.sendMessage("A level map is still rendering.");
+			}
+		} catch (IllegalArgumentException exception) {
+			sender.sendMessage(exception.getMessage());
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the spawn journal to the journal folder: /<command>
+	 *
+	 * @param sender
+	 * @param command
+	 * @param label
+	 * @param args
+	 * @return
+	 */
+	public boolean dumpJournalCommand (final CommandSender sender, final Command command,
+									   final String label, final String[] args) {
+		if (!journal.isEnabled()) {
+			sender.sendMessage("The spawn journal is disabled.");
+			return true;
+		}
+		SpawnJournal copy = journal.copy();
+		String time = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now());
+		Path file = getDataFolder().toPath().resolve("journal").resolve("journal-" + time + ".tsv");
+		getServer().getScheduler().runTaskAsynchronously(this, () -> {
+			String message;
+			try {
+				copy.writeTo(file);
+				message = "Wrote " + copy.size() + " spawns to " + file + ".";
+			} catch (IOException exception) {
+				getLogger().log(Level.WARNING, "Could not write spawn journal: {0}", exception.getMessage());
+				message = "Could not write spawn journal! See log for details.";
+			}
+			String result = message;
+			getServer().getScheduler().runTask(this, () -> sender.sendMessage(result));
+		});
+		return true;
+	}
+
+	/**
+	 * Lists the failures of variations, drops and world calculations since the last reload: /<command>
+	 *
+	 * @param sender
+	 * @param command
+	 * @param label
+	 * @param args
+	 * @return
+	 */
+	public boolean failuresCommand (final CommandSender sender, final Command command,
+									final String label, final String[] args) {
+		Map<String, Long> failures = failureMonitor.getFailureCounts();
+		if (failures.isEmpty()) {
+			sender.sendMessage("No failures since the last reload.");
+			return true;
+		}
+		List<String> disabled = failureMonitor.getOpenNames();
+		for (Map.Entry<String, Long> failure : failures.entrySet()) {
+			sender.sendMessage(failure.getKey() + ": " + failure.getValue() + " failures"
+							   + (disabled.contains(failure.getKey()) ? ", disabled" : ""));
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.Map;
+import java.util.Objects;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+/**
+ * Level dependent potion effect.
+ */
+public class EffectVariation {
+
+	private final PotionEffectType type;
+	private CalculationNode amplifierCalculation;
+	private CalculationNode durationCalculation;
+	private boolean particles = true;
+
+	public EffectVariation (PotionEffectType type, Expression amplifier, Expression duration) {
+		this.type = Objects.requireNonNull(type);
+		this.amplifierCalculation = new CalculationNode(type.getName() + "_AMPLIFIER", Objects.requireNonNull(amplifier));
+		this.durationCalculation = new CalculationNode(type.getName() + "_DURATION", Objects.requireNonNull(duration));
+	}
+
+	public PotionEffectType getType () {
+		return this.type;
+	}
+
+	public void setParticles (boolean particles) {
+		this.particles = particles;
+	}
+
+	/**
+	 * Creates the effect for the given variables.
+	 *
+	 * @param variables variables of the spawn
+	 * @return the effect or null if the amplifier is negative; negative durations never run out
+	 */
+	public PotionEffect createEffect (Map<String, Double> variables) {
+		int amplifier = Math.toIntExact(Math.round(this.amplifierCalculation.calculateVariable(variables)));
+		if (amplifier < 0) {
+			return null;
+		}
+		int duration = Math.toIntExact(Math.round(this.durationCalculation.calculateVariable(variables)));
+		return new PotionEffect(this.type, duration < 0 ? Integer.MAX_VALUE : duration, amplifier, false, this.particles);
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = 3;
+		hash = 59 * hash + Objects.hashCode(this.type);
+		return hash;
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final EffectVariation other = (EffectVariation) obj;
+		return Objects.equals(this.type, other.getType());
+	}
+
+	/**
+	 * Puts all calculations of this effect into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this effect
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".amplifier", this.amplifierCalculation);
+		calculations.put(path + ".duration", this.durationCalculation);
+	}
+}
@@ -18,8 +18,13 @@
 package de.minetropolis.monsters;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 
 /**
@@ -27,12 +32,34 @@ import org.bukkit.inventory.ItemStack;
  */
 public class EntityDeathData {
 
+	private static final Random RANDOM = new Random();
+	private static final ItemStack[] NO_DROPS = new ItemStack[0];
+
 	private final int experience;
-	private final List<ItemStack> drops;
+	private ItemStack[] drops;
+	private final double vanillaMultiplier;
+	private final Map<Material, Double> materialMultipliers;
 
 	public EntityDeathData (int experience, List<ItemStack> drops) {
+		this(experience, drops.toArray(NO_DROPS));
+	}
+
+	public EntityDeathData (int experience, List<ItemStack> drops, double vanillaMultiplier, Map<Material, Double> materialMultipliers) {
+		this(experience, drops.toArray(NO_DROPS), vanillaMultiplier, materialMultipliers);
+	}
+
+	/**
+	 * Creates death data owning the given array, it is not copied.
+	 */
+	public EntityDeathData (int experience, ItemStack[] drops) {
+		this(experience, drops, 1, Collections.emptyMap());
+	}
+
+	public EntityDeathData (int experience, ItemStack[] drops, double vanillaMultiplier, Map<Material, Double> materialMultipliers) {
 		this.experience = experience;
-		this.drops = new ArrayList<>(drops);
+		this.drops = drops;
+		this.vanillaMultiplier = vanillaMultiplier;
+		this.materialMultipliers = materialMultipliers;
 	}
 	
 	public int getDroppedExp() {
@@ -40,6 +67,56 @@ public class EntityDeathData {
 	}
 	
 	public List<ItemStack> getDrops() {
-		return Collections.unmodifiableList(drops);
+		return Collections.unmodifiableList(Arrays.asList(drops));
+	}
+
+	/**
+	 * Adds the drops to the given list, growing it once for all of them. The items are handed over and not copied, so
+	 * the drops are only transferred once, later calls add nothing.
+	 *
+	 * @param target list to add the drops to, usually the drops of the death event
+	 */
+	public void transferDrops (List<ItemStack> target) {
+		if (drops.length == 0) {
+			return;
+		}
+		if (target instanceof ArrayList) {
+			((ArrayList<ItemStack>) target).ensureCapacity(target.size() + drops.length);
+		}
+		for (ItemStack drop : drops) {
+			target.add(drop);
+		}
+		drops = NO_DROPS;
+	}
+
+	public boolean scalesVanillaDrops () {
+		return vanillaMultiplier != 1 || !materialMultipliers.isEmpty();
+	}
+
+	/**
+	 * Multiplies the amounts of the given vanilla drops, fractions are rounded up by chance. Items that do not stack,
+	 * like dropped equipment, are kept unchanged. The amounts may exceed the stack size, use a {@link DropCoalescer}
+	 * to split them into valid stacks.
+	 *
+	 * @param vanillaDrops drops to scale, modified in place
+	 */
+	public void scaleVanillaDrops (List<ItemStack> vanillaDrops) {
+		Iterator<ItemStack> iterator = vanillaDrops.iterator();
+		while (iterator.hasNext()) {
+			ItemStack drop = iterator.next();
+			if (drop == null || drop.getMaxStackSize() <= 1) {
+				continue;
+			}
+			double scaled = drop.getAmount() * materialMultipliers.getOrDefault(drop.getType(), vanillaMultiplier);
+			int amount = (int) Math.min(Integer.MAX_VALUE, Math.floor(scaled));
+			if (RANDOM.nextDouble() < scaled - amount) {
+				amount++;
+			}
+			if (amount <= 0) {
+				iterator.remove();
+			} else {
+				drop.setAmount(amount);
+			}
+		}
 	}
 }
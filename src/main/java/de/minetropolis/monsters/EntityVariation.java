@@ -18,6 +18,10 @@ package de.minetropolis.monsters;
 
 import de.minetropolis.monsters.math.CalculationNode;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,12 +29,17 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 import net.objecthunter.exp4j.Expression;
 import org.bukkit.attribute.Attribute;
+import org.bukkit.attribute.AttributeInstance;
 import org.bukkit.entity.LivingEntity;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.metadata.FixedMetadataValue;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.potion.PotionEffect;
 
 /**
  *
@@ -40,66 +49,259 @@ public class EntityVariation {
 	private static final Random RANDOM = new Random();
 
 	private final String variationName;
+	private final int variationId;
 	private final Plugin plugin;
+	private String path = null;
 	private CalculationNode weightCalculation;
 	private CalculationNode experienceCalculation;
 
 	private boolean nameVisible = false;
 	private String namePattern = null;
 	private final Set<DropVariation> drops = new HashSet<>();
-	private final Map<Attribute, CalculationNode> attributes = new HashMap<>();
+	private LootTable[] lootTables = new LootTable[0];
+	private VanillaLootVariation vanillaLoot = null;
+	private boolean deferDeathData = false;
+	private Set<SpawnReason> spawnReasons = null;
+	private Attribute[] attributeTypes = new Attribute[0];
+	private CalculationNode[] attributeCalculations = new CalculationNode[0];
+	private boolean[] attributeConstantPerLevel = new boolean[0];
+	private boolean hasConstantAttributes = false;
+	private final Map<Integer, double[]> constantAttributeValues = new HashMap<>();
+	private final Map<EquipmentSlot, EquipmentVariation> equipment = new EnumMap<>(EquipmentSlot.class);
+	private final Set<EffectVariation> effects = new HashSet<>();
+	private final Set<AbilityVariation> abilities = new HashSet<>();
 
+	/**
+	 * Creates a variation.
+	 *
+	 * @param variationName name of the variation
+	 * @param weight        weight among the variations of an entity type
+	 * @param plugin        plugin owning the metadata of changed entities, null if the variation never changes entities
+	 */
 	public EntityVariation (String variationName, Expression weight, Plugin plugin) {
 		this.variationName = Objects.requireNonNull(variationName);
 		if (variationName.isEmpty()) {
 			throw new IllegalArgumentException();
 		}
+		this.variationId = MobState.variationId(variationName);
 		this.weightCalculation = new CalculationNode("weight", Objects.requireNonNull(weight));
-		this.plugin = Objects.requireNonNull(plugin);
+		this.plugin = plugin;
 	}
 
-	public static void modifyEntityWeighted (Set<EntityVariation> variations, LivingEntity entity, Map<String, Double> variables, int level) {
+	public static void modifyEntityWeighted (Set<EntityVariation> variations, LivingEntity entity, Map<String, Double> variables, int level,
+											 SpawnJournal journal, FailureMonitor monitor) {
 		if (entity.getScoreboardTags().contains("Custom"))
 			return;
 
+		if (monitor == null) {
+			EntityVariation variation = chooseWeighted(variations, variables, RANDOM, null);
+			if (variation != null) {
+				variation.modifyEntity(entity, variables, level, journal, null);
+			}
+			return;
+		}
+		Set<EntityVariation> remaining = variations;
+		while (true) {
+			EntityVariation variation = chooseWeighted(remaining, variables, RANDOM, monitor);
+			if (variation == null) {
+				return;
+			}
+			Consumer<LivingEntity> modification;
+			try {
+				modification = variation.prepareModification(variables, level, journal, monitor);
+			} catch (RuntimeException exception) {
+				monitor.recordFailure(variation, variation.getFailureName(), exception);
+				if (remaining == variations) {
+					remaining = new HashSet<>(variations);
+				}
+				remaining.remove(variation);
+				continue;
+			}
+			modification.accept(entity);
+			return;
+		}
+	}
+
+	/**
+	 * Chooses one of the variations by their weights.
+	 *
+	 * @param variations variations to choose from
+	 * @param variables  variables the weights are calculated with
+	 * @param random     random to choose with
+	 * @param monitor    monitor of failures or null to throw failures, with a monitor disabled and failing variations are
+	 *                   left out and negative weights count as 0
+	 * @return chosen variation or null if no variation was chosen
+	 */
+	public static EntityVariation chooseWeighted (Set<EntityVariation> variations, Map<String, Double> variables, Random random,
+												  FailureMonitor monitor) {
 		List<EntityVariation> variationsList = new ArrayList<>(variations);
 		List<Integer> weightList = new ArrayList<>();
 		int totalWeight = 0;
 		for (int index = 0; index < variationsList.size(); index++) {
-			int weight = Math.toIntExact(Math.round(variationsList.get(index).calculateWeight(variables)));
+			EntityVariation variation = variationsList.get(index);
+			int weight = 0;
+			if (monitor == null) {
+				weight = Math.toIntExact(Math.round(variation.calculateWeight(variables)));
+			} else if (!monitor.isOpen(variation)) {
+				try {
+					weight = Math.max(0, Math.toIntExact(Math.round(variation.calculateWeight(variables))));
+				} catch (RuntimeException exception) {
+					monitor.recordFailure(variation, variation.getFailureName(), exception);
+				}
+			}
 			weightList.add(index, weight);
 			totalWeight += weight;
 		}
-		int targetVariation = RANDOM.nextInt(totalWeight);
+		if (monitor != null && totalWeight <= 0) {
+			return null;
+		}
+		int targetVariation = random.nextInt(totalWeight);
 		for (int index = 0; index < weightList.size(); index++) {
 			targetVariation -= weightList.get(index);
 			if (targetVariation < 0) {
-				variationsList.get(index).modifyEntity(entity, variables, level);
-				return;
+				return variationsList.get(index);
 			}
 		}
+		return null;
 	}
 
 	public String getName () {
 		return this.variationName;
 	}
 
+	/**
+	 * Returns the id stored in the {@link MobState} of changed entities.
+	 *
+	 * @return id of this variation
+	 */
+	public int getId () {
+		return this.variationId;
+	}
+
+	/**
+	 * Sets the path of the variation in the config, which tells same-named variations of different entity types apart
+	 * in failure reports.
+	 *
+	 * @param path path of the variation section
+	 */
+	public void setPath (String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns the name failures of this variation are reported by.
+	 *
+	 * @return name including the config path if known
+	 */
+	public String getFailureName () {
+		return "Variation " + (this.path == null ? this.variationName : this.path);
+	}
+
+	/**
+	 * Checks whether the monitor disabled one of the drops this variation rolls, directly or through its loot tables.
+	 *
+	 * @param monitor monitor of failing drops
+	 * @return whether a drop is disabled
+	 */
+	boolean hasOpenDrops (FailureMonitor monitor) {
+		for (DropVariation drop : this.drops) {
+			if (monitor.isOpen(drop)) {
+				return true;
+			}
+		}
+		for (LootTable table : this.lootTables) {
+			if (table.hasOpenDrops(monitor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	Set<String> getWeightVariables () {
+		return this.weightCalculation.getRequiredVariables();
+	}
+
 	public double calculateWeight (Map<String, Double> variables) {
 		return this.weightCalculation.calculateVariable(variables);
 	}
 
-	public void addAttribute (Attribute attribute, Expression attributeValue) {
-		this.attributes.put(attribute, new CalculationNode(attribute.toString() + "_VALUE", attributeValue));
+	/**
+	 * Sets the base value of an attribute.
+	 *
+	 * @param attribute        attribute to set
+	 * @param attributeValue   value of the attribute
+	 * @param constantPerLevel whether the value only depends on the level, those values are calculated once per level
+	 */
+	public void addAttribute (Attribute attribute, Expression attributeValue, boolean constantPerLevel) {
+		CalculationNode calculation = new CalculationNode(attribute.toString() + "_VALUE", attributeValue);
+		int index = Arrays.asList(this.attributeTypes).indexOf(attribute);
+		if (index < 0) {
+			index = this.attributeTypes.length;
+			this.attributeTypes = Arrays.copyOf(this.attributeTypes, index + 1);
+			this.attributeCalculations = Arrays.copyOf(this.attributeCalculations, index + 1);
+			this.attributeConstantPerLevel = Arrays.copyOf(this.attributeConstantPerLevel, index + 1);
+		}
+		this.attributeTypes[index] = attribute;
+		this.attributeCalculations[index] = calculation;
+		this.attributeConstantPerLevel[index] = constantPerLevel;
+		this.hasConstantAttributes |= constantPerLevel;
+		this.constantAttributeValues.clear();
 	}
 
-	public void addEquipment () {
-		throw new UnsupportedOperationException();
+	public void addEquipment (EquipmentVariation item) {
+		this.equipment.put(item.getSlot(), item);
+	}
+
+	public void addEffect (EffectVariation effect) {
+		this.effects.add(effect);
+	}
+
+	public void addAbility (AbilityVariation ability) {
+		this.abilities.add(ability);
 	}
 
 	public void addDrop (DropVariation drop) {
 		this.drops.add(drop);
 	}
 
+	public void addLootTable (LootTable table) {
+		this.lootTables = Arrays.copyOf(this.lootTables, this.lootTables.length + 1);
+		this.lootTables[this.lootTables.length - 1] = Objects.requireNonNull(table);
+	}
+
+	public void setVanillaLoot (VanillaLootVariation vanillaLoot) {
+		this.vanillaLoot = vanillaLoot;
+	}
+
+	/**
+	 * Defers rolling the death data from the spawn to the damage or death of the entity, see
+	 * {@link DeathDataPrecomputer}.
+	 *
+	 * @param defer true to store a {@link PendingDeathData} instead of rolled death data
+	 */
+	public void setDeferDeathData (boolean defer) {
+		this.deferDeathData = defer;
+	}
+
+	/**
+	 * Restricts the variation to entities spawned for the given reasons.
+	 *
+	 * @param spawnReasons allowed reasons or null to allow all
+	 */
+	public void setSpawnReasons (Set<SpawnReason> spawnReasons) {
+		if (spawnReasons == null) {
+			this.spawnReasons = null;
+		} else {
+			Set<SpawnReason> reasons = EnumSet.noneOf(SpawnReason.class);
+			reasons.addAll(spawnReasons);
+			this.spawnReasons = Collections.unmodifiableSet(reasons);
+		}
+	}
+
+	public boolean allowsSpawnReason (SpawnReason reason) {
+		return this.spawnReasons == null || this.spawnReasons.contains(reason);
+	}
+
 	public void setWeight (Expression weight) {
 		this.weightCalculation = new CalculationNode("weight", Objects.requireNonNull(weight));
 	}
@@ -116,18 +318,178 @@ public class EntityVariation {
 		this.nameVisible = visible;
 	}
 
-	public void modifyEntity (LivingEntity entity, Map<String, Double> variables, int level) {
+	public void modifyEntity (LivingEntity entity, Map<String, Double> variables, int level, SpawnJournal journal, FailureMonitor monitor) {
+		prepareModification(variables, level, journal, monitor).accept(entity);
+	}
+
+	/**
+	 * Calculates everything this variation changes before any entity is touched, so a failing calculation leaves the
+	 * entity unchanged and another variation can be chosen.
+	 *
+	 * @param variables variables of the spawn
+	 * @param level     level of the entity
+	 * @param journal   journal to record the spawn in
+	 * @param monitor   monitor of failing drops or null to throw failures
+	 * @return change to apply to the entity
+	 */
+	Consumer<LivingEntity> prepareModification (Map<String, Double> variables, int level, SpawnJournal journal, FailureMonitor monitor) {
+		int seed = RANDOM.nextInt();
+		Object deathData = createDeathMetadata(variables, seed, monitor);
+		double[] attributeValues = calculateAttributes(variables, level);
+		List<Consumer<EntityEquipment>> equipmentChanges = new ArrayList<>(this.equipment.size());
+		for (EquipmentVariation item : this.equipment.values()) {
+			equipmentChanges.add(item.prepare(variables, level));
+		}
+		List<PotionEffect> potionEffects = new ArrayList<>(this.effects.size());
+		for (EffectVariation effect : this.effects) {
+			PotionEffect potionEffect = effect.createEffect(variables);
+			if (potionEffect != null) {
+				potionEffects.add(potionEffect);
+			}
+		}
+		List<Consumer<LivingEntity>> schedules = new ArrayList<>(this.abilities.size());
+		for (AbilityVariation ability : this.abilities) {
+			Consumer<LivingEntity> schedule = ability.prepare(variables);
+			if (schedule != null) {
+				schedules.add(schedule);
+			}
+		}
+		return entity -> {
+			if (this.namePattern != null) {
+				entity.setCustomName(generateNameFromPattern(entity, level));
+			}
+			entity.setCustomNameVisible(this.nameVisible);
+
+			EntityEquipment entityEquipment = entity.getEquipment();
+			if (entityEquipment != null) {
+				for (Consumer<EntityEquipment> equipmentChange : equipmentChanges) {
+					equipmentChange.accept(entityEquipment);
+				}
+			}
+
+			new MobState(getId(), level, seed).writeTo(entity);
+			entity.setMetadata("dynamicMonstersDrops", new FixedMetadataValue(plugin, deathData));
+			setAttributes(entity, attributeValues, true, journal.record(entity, this, level), journal);
+
+			for (PotionEffect potionEffect : potionEffects) {
+				entity.addPotionEffect(potionEffect, true);
+			}
+			for (Consumer<LivingEntity> schedule : schedules) {
+				schedule.accept(entity);
+			}
+		};
+	}
+
+	/**
+	 * Rolls loot and experience. The same variables and seed always lead to the same drop chance and pool rolls.
+	 *
+	 * @param variables variables of the entity
+	 * @param seed      seed of the entity
+	 * @return data to apply on death
+	 */
+	public EntityDeathData createDeathData (Map<String, Double> variables, int seed) {
+		return createDeathData(variables, seed, null);
+	}
+
+	/**
+	 * Rolls loot and experience like {@link #createDeathData(Map, int)}, failing and disabled drops are left out.
+	 *
+	 * @param variables variables of the entity
+	 * @param seed      seed of the entity
+	 * @param monitor   monitor of failing drops or null to throw failures
+	 * @return data to apply on death
+	 */
+	public EntityDeathData createDeathData (Map<String, Double> variables, int seed, FailureMonitor monitor) {
+		Random random = new Random(seed);
+		int experience = Math.toIntExact(Math.round(experienceCalculation.calculateVariable(variables)));
+		List<ItemStack> loot = new ArrayList<>(this.drops.size() + this.lootTables.length);
+		for (DropVariation drop : this.drops) {
+			drop.generateItemByChance(variables, random, monitor).ifPresent(loot::add);
+		}
+		for (LootTable table : this.lootTables) {
+			table.generate(variables, loot, random, monitor);
+		}
+		ItemStack[] items = loot.toArray(new ItemStack[loot.size()]);
+		return this.vanillaLoot == null
+			   ? new EntityDeathData(experience, items)
+			   : new EntityDeathData(experience, items, this.vanillaLoot.calculateMultiplier(variables),
+									 this.vanillaLoot.calculateMaterialMultipliers(variables));
+	}
+
+	private Object createDeathMetadata (Map<String, Double> variables, int seed, FailureMonitor monitor) {
+		return this.deferDeathData
+			   ? new PendingDeathData(this, variables, seed)
+			   : createDeathData(variables, seed, monitor);
+	}
+
+	/**
+	 * Moves an entity changed by this variation to another level. Name, attributes and death data are updated, health
+	 * keeps its share of the max health. Equipment and effects stay as they are.
+	 *
+	 * @param entity    entity to update
+	 * @param variables variables at the entity's location
+	 * @param level     new level
+	 * @param seed      seed of the entity
+	 * @param monitor   monitor of failing drops or null to throw failures
+	 */
+	public void relevelEntity (LivingEntity entity, Map<String, Double> variables, int level, int seed, FailureMonitor monitor) {
+		double[] attributeValues = calculateAttributes(variables, level);
+		Object deathData = createDeathMetadata(variables, seed, monitor);
 		if (this.namePattern != null) {
 			entity.setCustomName(generateNameFromPattern(entity, level));
 		}
-		entity.setCustomNameVisible(this.nameVisible);
-		
-		EntityEquipment equipment = entity.getEquipment();
-		
-		entity.setMetadata("dynamicMonstersDrops", new FixedMetadataValue(plugin, new EntityDeathData(Math.toIntExact(Math.round(experienceCalculation.calculateVariable(variables))), DropVariation.generateLoot(drops, variables))));
-		this.attributes.forEach((attribute, expression) -> entity.getAttribute(attribute).setBaseValue(expression.calculateVariable(variables)));
-		
-		entity.setHealth(entity.getAttribute(Attribute.GENERIC_MAX_HEALTH).getValue());
+		setAttributes(entity, attributeValues, false, -1, null);
+		new MobState(getId(), level, seed).writeTo(entity);
+		entity.setMetadata("dynamicMonstersDrops", new FixedMetadataValue(plugin, deathData));
+	}
+
+	private double[] calculateAttributes (Map<String, Double> variables, int level) {
+		double[] constantValues = null;
+		if (this.hasConstantAttributes) {
+			constantValues = this.constantAttributeValues.get(level);
+			if (constantValues == null) {
+				constantValues = new double[this.attributeTypes.length];
+				for (int index = 0; index < constantValues.length; index++) {
+					if (this.attributeConstantPerLevel[index]) {
+						constantValues[index] = this.attributeCalculations[index].calculateVariable(variables);
+					}
+				}
+				this.constantAttributeValues.put(level, constantValues);
+			}
+		}
+		double[] values = new double[this.attributeTypes.length];
+		for (int index = 0; index < values.length; index++) {
+			values[index] = this.attributeConstantPerLevel[index]
+							? constantValues[index]
+							: this.attributeCalculations[index].calculateVariable(variables);
+		}
+		return values;
+	}
+
+	private void setAttributes (LivingEntity entity, double[] values, boolean fullHealth, int journalSlot, SpawnJournal journal) {
+		AttributeInstance maxHealth = null;
+		double healthShare = 1;
+		for (int index = 0; index < this.attributeTypes.length; index++) {
+			AttributeInstance instance = entity.getAttribute(this.attributeTypes[index]);
+			if (instance == null) {
+				continue;
+			}
+			double value = values[index];
+			if (journalSlot >= 0) {
+				journal.recordAttribute(journalSlot, this.attributeTypes[index], value);
+			}
+			if (value == instance.getBaseValue()) {
+				continue;
+			}
+			if (this.attributeTypes[index] == Attribute.GENERIC_MAX_HEALTH) {
+				maxHealth = instance;
+				healthShare = entity.getHealth() / instance.getValue();
+			}
+			instance.setBaseValue(value);
+		}
+		if (maxHealth != null) {
+			entity.setHealth(fullHealth ? maxHealth.getValue() : Math.max(Math.min(1, healthShare), 0) * maxHealth.getValue());
+		}
 	}
 
 	private String generateNameFromPattern (LivingEntity entity, int level) {
@@ -164,4 +526,36 @@ public class EntityVariation {
 		return "EntityVariation{" + "variationName=" + variationName + ", weightCalculation=" + weightCalculation + ", namePattern=" + namePattern + '}';
 	}
 
+	/**
+	 * Puts all calculations of this variation, except the weight, into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this variation, except the weight,
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		if (this.experienceCalculation != null) {
+			calculations.put(path + ".experience", this.experienceCalculation);
+		}
+		for (DropVariation drop : this.drops) {
+			drop.collectCalculations(path + ".loot." + drop.getName(), calculations);
+		}
+		for (LootTable table : this.lootTables) {
+			table.collectCalculations("loot-tables." + table.getName(), calculations);
+		}
+		if (this.vanillaLoot != null) {
+			this.vanillaLoot.collectCalculations(path + ".vanilla-loot", calculations);
+		}
+		for (int index = 0; index < this.attributeTypes.length; index++) {
+			calculations.put(path + ".attributes." + this.attributeTypes[index], this.attributeCalculations[index]);
+		}
+		for (EquipmentVariation item : this.equipment.values()) {
+			item.collectCalculations(path + ".equipment." + item.getSlot(), calculations);
+		}
+		for (EffectVariation effect : this.effects) {
+			effect.collectCalculations(path + ".effects." + effect.getType().getName(), calculations);
+		}
+		for (AbilityVariation ability : this.abilities) {
+			ability.collectCalculations(path + ".abilities." + ability.getName(), calculations);
+		}
+	}
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Level dependent equipment of one slot.
+ * <p>
+ * The item of a slot only depends on the level, so it is built once per level as a template and the same template is
+ * handed to every entity of that level.
+ */
+public class EquipmentVariation {
+
+	private final EquipmentSlot slot;
+	private final List<Material> tiers;
+	private CalculationNode tierCalculation;
+	private CalculationNode dropChanceCalculation = null;
+	private final Map<Enchantment, CalculationNode> enchantments = new LinkedHashMap<>();
+	private final Map<Integer, Optional<ItemStack>> templates = new HashMap<>();
+
+	public EquipmentVariation (EquipmentSlot slot, List<Material> tiers, Expression tier) {
+		this.slot = Objects.requireNonNull(slot);
+		if (tiers.isEmpty()) {
+			throw new IllegalArgumentException("no material tiers");
+		}
+		this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+		this.tierCalculation = new CalculationNode("tier", Objects.requireNonNull(tier));
+	}
+
+	public EquipmentSlot getSlot () {
+		return this.slot;
+	}
+
+	public void setDropChance (Expression dropChance) {
+		this.dropChanceCalculation = new CalculationNode("dropChance", Objects.requireNonNull(dropChance));
+	}
+
+	public void addEnchantment (Enchantment enchantment, Expression level) {
+		this.enchantments.put(Objects.requireNonNull(enchantment),
+							  new CalculationNode(enchantment.getName() + "_LEVEL", Objects.requireNonNull(level)));
+		this.templates.clear();
+	}
+
+	/**
+	 * Puts the item of the given level into the slot. Negative tiers keep the item the entity already has.
+	 *
+	 * @param equipment equipment to modify
+	 * @param variables variables of the spawn
+	 * @param level     level of the entity
+	 */
+	public void equip (EntityEquipment equipment, Map<String, Double> variables, int level) {
+		prepare(variables, level).accept(equipment);
+	}
+
+	/**
+	 * Calculates the item of the given level without changing any equipment.
+	 *
+	 * @param variables variables of the spawn
+	 * @param level     level of the entity
+	 * @return change that puts the item into the slot
+	 */
+	Consumer<EntityEquipment> prepare (Map<String, Double> variables, int level) {
+		Optional<ItemStack> template = this.templates.computeIfAbsent(level, this::createTemplate);
+		if (!template.isPresent()) {
+			return equipment -> {
+			};
+		}
+		Float dropChance = this.dropChanceCalculation == null
+						   ? null
+						   : (float) this.dropChanceCalculation.calculateVariable(variables);
+		return equipment -> {
+			this.slot.setEquipment(equipment, template.get());
+			if (dropChance != null) {
+				this.slot.setDropChance(equipment, dropChance);
+			}
+		};
+	}
+
+	private Optional<ItemStack> createTemplate (int level) {
+		Map<String, Double> variables = new HashMap<>();
+		variables.put("level", (double) level);
+		long tier = Math.round(this.tierCalculation.calculateVariable(variables));
+		if (tier < 0) {
+			return Optional.empty();
+		}
+		Material type = this.tiers.get((int) Math.min(tier, this.tiers.size() - 1));
+		ItemStack item = new ItemStack(type);
+		if (type == Material.AIR) {
+			return Optional.of(item);
+		}
+		for (Map.Entry<Enchantment, CalculationNode> enchantment : this.enchantments.entrySet()) {
+			int enchantmentLevel = Math.toIntExact(Math.round(enchantment.getValue().calculateVariable(variables)));
+			if (enchantmentLevel > 0) {
+				item.addUnsafeEnchantment(enchantment.getKey(), enchantmentLevel);
+			}
+		}
+		return Optional.of(item);
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = 7;
+		hash = 41 * hash + Objects.hashCode(this.slot);
+		return hash;
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final EquipmentVariation other = (EquipmentVariation) obj;
+		return this.slot == other.getSlot();
+	}
+
+	/**
+	 * Puts all calculations of this equipment into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this equipment
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".tier", this.tierCalculation);
+		if (this.dropChanceCalculation != null) {
+			calculations.put(path + ".drop-chance", this.dropChanceCalculation);
+		}
+		for (Map.Entry<Enchantment, CalculationNode> enchantment : this.enchantments.entrySet()) {
+			calculations.put(path + ".enchantments." + enchantment.getKey().getName(), enchantment.getValue());
+		}
+	}
+}
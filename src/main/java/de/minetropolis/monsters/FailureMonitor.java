@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker for variations and drops whose calculations throw at spawn or death time.
+ * <p>
+ * Failures are counted per variation or drop. A variation or drop that fails too often within the window is disabled
+ * for the cooldown and the others are used instead. The first failure of each is logged as one line, after that
+ * failures are only summed up and reported once per window, so a broken formula never floods the log with stack
+ * traces. Runs once per tick on the main thread, all other methods must be called from there too.
+ */
+public final class FailureMonitor implements Runnable {
+
+	private final Logger logger;
+	private final Map<Object, State> states = new IdentityHashMap<>();
+	private int maximumFailures = 10;
+	private int window = 1200;
+	private int cooldown = 6000;
+	private long tick = 0;
+
+	public FailureMonitor (Logger logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * Sets when a variation or drop gets disabled.
+	 *
+	 * @param maximumFailures failures within the window that disable a variation or drop
+	 * @param window          length of the window in ticks, failures are also reported once per window
+	 * @param cooldown        ticks a variation or drop stays disabled, 0 keeps it disabled until the next reload
+	 */
+	public void setPolicy (int maximumFailures, int window, int cooldown) {
+		if (maximumFailures < 1 || window < 1 || cooldown < 0) {
+			throw new IllegalArgumentException("invalid failure policy");
+		}
+		this.maximumFailures = maximumFailures;
+		this.window = window;
+		this.cooldown = cooldown;
+	}
+
+	/**
+	 * Forgets all failures and enables everything again, e.g. after a reload.
+	 */
+	public void reset () {
+		this.states.clear();
+	}
+
+	/**
+	 * Checks whether a variation or drop is disabled.
+	 *
+	 * @param key variation or drop
+	 * @return whether it must not be used
+	 */
+	public boolean isOpen (Object key) {
+		if (this.states.isEmpty()) {
+			return false;
+		}
+		State state = this.states.get(key);
+		return state != null && state.openUntil > this.tick;
+	}
+
+	/**
+	 * Counts a failure.
+	 *
+	 * @param key       variation or drop that failed
+	 * @param name      name shown in the log
+	 * @param exception exception thrown
+	 */
+	public void recordFailure (Object key, String name, RuntimeException exception) {
+		State state = this.states.get(key);
+		if (state == null) {
+			state = new State(name);
+			this.states.put(key, state);
+			this.logger.log(Level.WARNING, "{0} failed: {1}", new Object[]{name, describe(exception)});
+			this.logger.log(Level.FINE, null, exception);
+		}
+		state.lastMessage = describe(exception);
+		state.totalFailures++;
+		state.reportedFailures++;
+		if (this.tick - state.windowStart >= this.window) {
+			state.windowStart = this.tick;
+			state.windowFailures = 0;
+		}
+		if (++state.windowFailures >= this.maximumFailures && state.openUntil <= this.tick) {
+			state.openUntil = this.cooldown == 0 ? Long.MAX_VALUE : this.tick + this.cooldown;
+			state.windowFailures = 0;
+			this.logger.log(Level.WARNING, "{0} failed {1} times within {2} ticks and is disabled {3}: {4}",
+							new Object[]{name, this.maximumFailures, this.window,
+										 this.cooldown == 0 ? "until the next reload" : "for " + this.cooldown + " ticks",
+										 state.lastMessage});
+		}
+	}
+
+	@Override
+	public void run () {
+		this.tick++;
+		if (this.tick % this.window != 0 || this.states.isEmpty()) {
+			return;
+		}
+		List<String> failures = new ArrayList<>();
+		for (State state : this.states.values()) {
+			if (state.reportedFailures > 0) {
+				failures.add(state.name + " " + state.reportedFailures + "x (" + state.lastMessage + ")");
+				state.reportedFailures = 0;
+			}
+		}
+		if (!failures.isEmpty()) {
+			this.logger.log(Level.WARNING, "Failures in the last {0} ticks: {1}", new Object[]{this.window, String.join(", ", failures)});
+		}
+	}
+
+	/**
+	 * Returns the failures since the last reset.
+	 *
+	 * @return failures per variation or drop name
+	 */
+	public Map<String, Long> getFailureCounts () {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (State state : this.states.values()) {
+			counts.merge(state.name, state.totalFailures, Long::sum);
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/**
+	 * Returns the names of all disabled variations and drops.
+	 *
+	 * @return names of disabled variations and drops
+	 */
+	public List<String> getOpenNames () {
+		List<String> names = new ArrayList<>();
+		for (State state : this.states.values()) {
+			if (state.openUntil > this.tick) {
+				names.add(state.name);
+			}
+		}
+		return names;
+	}
+
+	private static String describe (RuntimeException exception) {
+		return exception.getMessage() == null ? exception.getClass().getSimpleName()
+			   : exception.getClass().getSimpleName() + ": " + exception.getMessage();
+	}
+
+	private static final class State {
+
+		private final String name;
+		private String lastMessage;
+		private long totalFailures = 0;
+		private long reportedFailures = 0;
+		private long windowStart = 0;
+		private int windowFailures = 0;
+		private long openUntil = 0;
+
+		private State (String name) {
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.bukkit.World;
+
+/**
+ * Renders the levels of an area as PNG tiles for web maps.
+ * <p>
+ * Tiles are 256 pixels wide, zoom level 0 shows one block per pixel and every further zoom level halves the
+ * resolution. They are written to {@code <world>/<zoom>/<x>_<z>.png} as soon as they are done. Tiles are rendered in
+ * parallel on a pool of their own, levels are calculated off the main thread by the {@link LevelService}, so the
+ * surroundings of a location take neutral values.
+ */
+public final class LevelMapRenderer {
+
+	public static final int TILE_SIZE = 256;
+	private static final int MAXIMUM_TILES = 65536;
+	private static final int ALPHA = 0xA0 << 24;
+
+	private final LevelService levelService;
+	private final File outputFolder;
+	private final Logger logger;
+	private final AtomicBoolean rendering = new AtomicBoolean(false);
+	private volatile ExecutorService pool = null;
+
+	private int height = 64;
+	private int zoomLevels = 4;
+	private int threads = 0;
+	private int maximumLevel = 100;
+
+	public LevelMapRenderer (LevelService levelService, File outputFolder, Logger logger) {
+		this.levelService = levelService;
+		this.outputFolder = outputFolder;
+		this.logger = logger;
+	}
+
+	/**
+	 * Sets the y coordinate the levels are calculated at.
+	 *
+	 * @param height y coordinate
+	 */
+	public void setHeight (int height) {
+		this.height = height;
+	}
+
+	public void setZoomLevels (int zoomLevels) {
+		if (zoomLevels < 1) {
+			throw new IllegalArgumentException("at least one zoom level required");
+		}
+		this.zoomLevels = zoomLevels;
+	}
+
+	/**
+	 * Sets how many tiles are rendered at once.
+	 *
+	 * @param threads amount of render threads, 0 for one per processor
+	 */
+	public void setThreads (int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("threads must not be negative");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the level shown in the strongest color, lower levels fade from red over yellow to green.
+	 *
+	 * @param maximumLevel level shown red
+	 */
+	public void setMaximumLevel (int maximumLevel) {
+		if (maximumLevel < 1) {
+			throw new IllegalArgumentException("maximum level must be positive");
+		}
+		this.maximumLevel = maximumLevel;
+	}
+
+	/**
+	 * Starts rendering all tiles touching the given area. Returns immediately, the result is reported to the callback
+	 * from a render thread.
+	 *
+	 * @param world    world to render
+	 * @param minX     lowest x coordinate
+	 * @param minZ     lowest z coordinate
+	 * @param maxX     highest x coordinate
+	 * @param maxZ     highest z coordinate
+	 * @param callback receives a summary when rendering finished
+	 * @return false if a rendering is still running
+	 * @throws IllegalArgumentException if the world has no levels or the area needs too many tiles
+	 */
+	public boolean render (World world, int minX, int minZ, int maxX, int maxZ, Consumer<String> callback) {
+		if (!this.levelService.hasLevels(world)) {
+			throw new IllegalArgumentException("no levels configured for world " + world.getName());
+		}
+		List<int[]> tiles = new ArrayList<>();
+		for (int zoom = 0; zoom < this.zoomLevels; zoom++) {
+			int tileBlocks = TILE_SIZE << zoom;
+			for (int tileX = Math.floorDiv(Math.min(minX, maxX), tileBlocks); tileX <= Math.floorDiv(Math.max(minX, maxX), tileBlocks); tileX++) {
+				for (int tileZ = Math.floorDiv(Math.min(minZ, maxZ), tileBlocks); tileZ <= Math.floorDiv(Math.max(minZ, maxZ), tileBlocks); tileZ++) {
+					if (tiles.size() == MAXIMUM_TILES) {
+						throw new IllegalArgumentException("area needs more than " + MAXIMUM_TILES + " tiles");
+					}
+					tiles.add(new int[]{zoom, tileX, tileZ});
+				}
+			}
+		}
+		if (!this.rendering.compareAndSet(false, true)) {
+			return false;
+		}
+		ExecutorService renderPool = Executors.newFixedThreadPool(this.threads == 0 ? Runtime.getRuntime().availableProcessors() : this.threads, runnable -> {
+			Thread thread = new Thread(runnable, "DynamicMonsters level map");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.pool = renderPool;
+		Path worldFolder = this.outputFolder.toPath().resolve(world.getName());
+		int tileHeight = this.height;
+		int colorScale = this.maximumLevel;
+		AtomicInteger failed = new AtomicInteger();
+		List<Future<?>> rendered = new ArrayList<>(tiles.size());
+		for (int[] tile : tiles) {
+			rendered.add(renderPool.submit(() -> {
+				try {
+					renderTile(world, worldFolder, tile[0], tile[1], tile[2], tileHeight, colorScale);
+				} catch (IOException | RuntimeException exception) {
+					if (failed.getAndIncrement() == 0) {
+						this.logger.log(Level.WARNING, "Could not render level map tile: {0}", exception.getMessage());
+					}
+				}
+			}));
+		}
+		renderPool.submit(() -> {
+			try {
+				for (Future<?> tile : rendered) {
+					tile.get();
+				}
+				callback.accept("Rendered " + (tiles.size() - failed.get()) + " of " + tiles.size() + " level map tiles of " + world.getName() + ".");
+			} catch (Exception exception) {
+				callback.accept("Rendering level map of " + world.getName() + " stopped: " + exception);
+			} finally {
+				renderPool.shutdown();
+				this.rendering.set(false);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Stops a running rendering, tiles already written stay.
+	 */
+	public void shutdown () {
+		ExecutorService renderPool = this.pool;
+		if (renderPool != null) {
+			renderPool.shutdownNow();
+		}
+	}
+
+	private void renderTile (World world, Path worldFolder, int zoom, int tileX, int tileZ, int tileHeight, int colorScale) throws IOException {
+		int scale = 1 << zoom;
+		int originX = tileX * (TILE_SIZE << zoom);
+		int originZ = tileZ * (TILE_SIZE << zoom);
+		int pixels = TILE_SIZE * TILE_SIZE;
+		double[] xs = new double[pixels];
+		double[] ys = new double[pixels];
+		double[] zs = new double[pixels];
+		int[] levels = new int[pixels];
+		for (int pixel = 0; pixel < pixels; pixel++) {
+			xs[pixel] = originX + (pixel % TILE_SIZE) * scale + scale / 2d;
+			ys[pixel] = tileHeight;
+			zs[pixel] = originZ + (pixel / TILE_SIZE) * scale + scale / 2d;
+		}
+		this.levelService.levelsAt(world, xs, ys, zs, levels);
+		for (int pixel = 0; pixel < pixels; pixel++) {
+			float share = Math.max(0f, Math.min(1f, levels[pixel] / (float) colorScale));
+			levels[pixel] = ALPHA | (Color.HSBtoRGB((1f - share) / 3f, 0.85f, 0.9f) & 0xFFFFFF);
+		}
+		BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, levels, 0, TILE_SIZE);
+		Path folder = worldFolder.resolve(Integer.toString(zoom));
+		Files.createDirectories(folder);
+		Path target = folder.resolve(tileX + "_" + tileZ + ".png");
+		Path temporary = folder.resolve(tileX + "_" + tileZ + ".png.tmp");
+		if (!ImageIO.write(image, "png", temporary.toFile())) {
+			throw new IOException("no PNG writer available");
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import org.bukkit.World;
+
+/**
+ * Lets other plugins query the level entities would get at a location. Registered with the Bukkit
+ * {@link org.bukkit.plugin.ServicesManager}.
+ * <p>
+ * Called from the main thread, the levels use the same surroundings as spawns, as long as the queried chunk is loaded.
+ * Called from other threads or for unloaded chunks, surroundings like players, time or light take neutral values, so
+ * only the position counts.
+ */
+public interface LevelService {
+
+	/**
+	 * Checks whether levels are configured for the given world.
+	 *
+	 * @param world world to check
+	 * @return whether the world has a level calculation
+	 */
+	boolean hasLevels (World world);
+
+	/**
+	 * Calculates the level at a location.
+	 *
+	 * @param world world of the location
+	 * @param x     x coordinate
+	 * @param y     y coordinate
+	 * @param z     z coordinate
+	 * @return level at the location
+	 * @throws IllegalArgumentException if the world has no level calculation
+	 */
+	int levelAt (World world, double x, double y, double z);
+
+	/**
+	 * Calculates the levels of many locations of one world.
+	 *
+	 * @param world world of the locations
+	 * @param xs    x coordinates
+	 * @param ys    y coordinates
+	 * @param zs    z coordinates
+	 * @param out   receives the level of each location
+	 * @throws IllegalArgumentException if the world has no level calculation or the arrays differ in length
+	 */
+	void levelsAt (World world, double[] xs, double[] ys, double[] zs, int[] out);
+}
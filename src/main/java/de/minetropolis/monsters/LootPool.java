@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Weighted pool of a loot table, every roll picks exactly one entry. An entry is either a drop or another table.
+ * <p>
+ * The weights are constant, so they are stored as cumulative sums and a pick is a binary search.
+ */
+public class LootPool {
+
+	private final String poolName;
+	private CalculationNode rollsCalculation;
+	private int[] cumulativeWeights = new int[0];
+	private DropVariation[] drops = new DropVariation[0];
+	private LootTable[] tables = new LootTable[0];
+
+	public LootPool (String poolName, Expression rolls) {
+		this.poolName = Objects.requireNonNull(poolName);
+		this.rollsCalculation = new CalculationNode("rolls", Objects.requireNonNull(rolls));
+	}
+
+	public String getName () {
+		return this.poolName;
+	}
+
+	public void addEntry (DropVariation drop, int weight) {
+		addEntry(Objects.requireNonNull(drop), null, weight);
+	}
+
+	public void addEntry (LootTable table, int weight) {
+		addEntry(null, Objects.requireNonNull(table), weight);
+	}
+
+	private void addEntry (DropVariation drop, LootTable table, int weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("weight must be positive");
+		}
+		int entries = this.cumulativeWeights.length;
+		int total = entries == 0 ? 0 : this.cumulativeWeights[entries - 1];
+		this.cumulativeWeights = Arrays.copyOf(this.cumulativeWeights, entries + 1);
+		this.cumulativeWeights[entries] = Math.addExact(total, weight);
+		this.drops = Arrays.copyOf(this.drops, entries + 1);
+		this.drops[entries] = drop;
+		this.tables = Arrays.copyOf(this.tables, entries + 1);
+		this.tables[entries] = table;
+	}
+
+	public List<LootTable> getReferencedTables () {
+		List<LootTable> referenced = new ArrayList<>();
+		for (LootTable table : this.tables) {
+			if (table != null) {
+				referenced.add(table);
+			}
+		}
+		return referenced;
+	}
+
+	public void generate (Map<String, Double> variables, List<ItemStack> loot, Random random, FailureMonitor monitor) {
+		int entries = this.cumulativeWeights.length;
+		if (entries == 0) {
+			return;
+		}
+		long rolls = Math.round(this.rollsCalculation.calculateVariable(variables));
+		for (long roll = 0; roll < rolls; roll++) {
+			int target = random.nextInt(this.cumulativeWeights[entries - 1]);
+			int index = Arrays.binarySearch(this.cumulativeWeights, target + 1);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			if (this.drops[index] != null) {
+				this.drops[index].generateItemByChance(variables, random, monitor).ifPresent(loot::add);
+			} else {
+				this.tables[index].generate(variables, loot, random, monitor);
+			}
+		}
+	}
+
+	boolean hasOpenDrops (FailureMonitor monitor) {
+		for (int entry = 0; entry < this.drops.length; entry++) {
+			if (this.drops[entry] != null ? monitor.isOpen(this.drops[entry]) : this.tables[entry].hasOpenDrops(monitor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Puts all calculations of this pool into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this pool
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".rolls", this.rollsCalculation);
+		for (int entry = 0; entry < this.drops.length; entry++) {
+			if (this.drops[entry] != null) {
+				this.drops[entry].collectCalculations(path + ".entries." + this.drops[entry].getName(), calculations);
+			} else {
+				this.tables[entry].collectCalculations("loot-tables." + this.tables[entry].getName(), calculations);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Named loot table that can be shared by many variations. Every roll checks all drops by their drop chance, rolls all
+ * nested tables and picks entries from all pools.
+ */
+public class LootTable {
+
+	private final String tableName;
+	private CalculationNode rollsCalculation;
+	private DropVariation[] drops = new DropVariation[0];
+	private LootTable[] tables = new LootTable[0];
+	private LootPool[] pools = new LootPool[0];
+
+	public LootTable (String tableName, Expression rolls) {
+		this.tableName = Objects.requireNonNull(tableName);
+		if (tableName.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		this.rollsCalculation = new CalculationNode("rolls", Objects.requireNonNull(rolls));
+	}
+
+	public String getName () {
+		return this.tableName;
+	}
+
+	public void addDrop (DropVariation drop) {
+		this.drops = Arrays.copyOf(this.drops, this.drops.length + 1);
+		this.drops[this.drops.length - 1] = Objects.requireNonNull(drop);
+	}
+
+	public void addTable (LootTable table) {
+		this.tables = Arrays.copyOf(this.tables, this.tables.length + 1);
+		this.tables[this.tables.length - 1] = Objects.requireNonNull(table);
+	}
+
+	public void addPool (LootPool pool) {
+		this.pools = Arrays.copyOf(this.pools, this.pools.length + 1);
+		this.pools[this.pools.length - 1] = Objects.requireNonNull(pool);
+	}
+
+	/**
+	 * Returns the tables this table rolls directly, nested or as pool entries.
+	 *
+	 * @return referenced tables
+	 */
+	public List<LootTable> getReferencedTables () {
+		if (this.tables.length == 0 && this.pools.length == 0) {
+			return Collections.emptyList();
+		}
+		List<LootTable> referenced = new ArrayList<>(Arrays.asList(this.tables));
+		for (LootPool pool : this.pools) {
+			referenced.addAll(pool.getReferencedTables());
+		}
+		return referenced;
+	}
+
+	/**
+	 * Rolls the table and adds the generated items.
+	 *
+	 * @param variables variables of the spawn
+	 * @param loot      list to add the items to
+	 * @param random    random used for drop chances and pool picks
+	 * @param monitor   monitor of failing drops or null to throw failures
+	 */
+	public void generate (Map<String, Double> variables, List<ItemStack> loot, Random random, FailureMonitor monitor) {
+		long rolls = Math.round(this.rollsCalculation.calculateVariable(variables));
+		for (long roll = 0; roll < rolls; roll++) {
+			for (DropVariation drop : this.drops) {
+				drop.generateItemByChance(variables, random, monitor).ifPresent(loot::add);
+			}
+			for (LootTable table : this.tables) {
+				table.generate(variables, loot, random, monitor);
+			}
+			for (LootPool pool : this.pools) {
+				pool.generate(variables, loot, random, monitor);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the monitor disabled a drop of this table or a table it rolls.
+	 *
+	 * @param monitor monitor of failing drops
+	 * @return whether a drop is disabled
+	 */
+	boolean hasOpenDrops (FailureMonitor monitor) {
+		for (DropVariation drop : this.drops) {
+			if (monitor.isOpen(drop)) {
+				return true;
+			}
+		}
+		for (LootTable table : this.tables) {
+			if (table.hasOpenDrops(monitor)) {
+				return true;
+			}
+		}
+		for (LootPool pool : this.pools) {
+			if (pool.hasOpenDrops(monitor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = 7;
+		hash = 23 * hash + Objects.hashCode(this.tableName);
+		return hash;
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final LootTable other = (LootTable) obj;
+		return Objects.equals(this.tableName, other.getName());
+	}
+
+	/**
+	 * Puts all calculations of this table into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this table
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".rolls", this.rollsCalculation);
+		for (DropVariation drop : this.drops) {
+			drop.collectCalculations(path + ".drops." + drop.getName(), calculations);
+		}
+		for (LootTable table : this.tables) {
+			table.collectCalculations("loot-tables." + table.getName(), calculations);
+		}
+		for (LootPool pool : this.pools) {
+			pool.collectCalculations(path + ".pools." + pool.getName(), calculations);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import org.bukkit.entity.Entity;
+
+/**
+ * Variation, level and loot seed of a changed entity, stored as scoreboard tag so it survives chunk unloads and
+ * restarts. The tag holds a few bytes in unpadded url safe Base64: format version, variation id, level as zigzag
+ * varint and seed. Tags are only decoded when a death or a query needs them.
+ */
+public final class MobState {
+
+	public static final String TAG_PREFIX = "dynamicMonsters:";
+
+	private static final byte FORMAT_VERSION = 1;
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	private final int variationId;
+	private final int level;
+	private final int seed;
+
+	public MobState (int variationId, int level, int seed) {
+		this.variationId = variationId;
+		this.level = level;
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the id of a variation, ids are only unique among the variations of one entity type. The parser rejects
+	 * variations of one entity type whose ids collide.
+	 *
+	 * @param variationName name of the variation
+	 * @return id of the variation
+	 */
+	public static int variationId (String variationName) {
+		return variationName.hashCode();
+	}
+
+	public int getVariationId () {
+		return this.variationId;
+	}
+
+	public int getLevel () {
+		return this.level;
+	}
+
+	public int getSeed () {
+		return this.seed;
+	}
+
+	/**
+	 * Reads the state of an entity.
+	 *
+	 * @param entity entity to read
+	 * @return state or an empty Optional if the entity has no valid state tag
+	 */
+	public static Optional<MobState> of (Entity entity) {
+		for (String tag : entity.getScoreboardTags()) {
+			if (tag.startsWith(TAG_PREFIX)) {
+				return decode(tag.substring(TAG_PREFIX.length()));
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Stores this state on the entity, replacing an older state.
+	 *
+	 * @param entity entity to write to
+	 */
+	public void writeTo (Entity entity) {
+		List<String> oldTags = new ArrayList<>();
+		for (String tag : entity.getScoreboardTags()) {
+			if (tag.startsWith(TAG_PREFIX)) {
+				oldTags.add(tag);
+			}
+		}
+		oldTags.forEach(entity::removeScoreboardTag);
+		entity.addScoreboardTag(TAG_PREFIX + encode());
+	}
+
+	String encode () {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(14);
+		bytes.write(FORMAT_VERSION);
+		writeInt(bytes, this.variationId);
+		int zigzag = (this.level << 1) ^ (this.level >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			bytes.write((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		bytes.write(zigzag);
+		writeInt(bytes, this.seed);
+		return ENCODER.encodeToString(bytes.toByteArray());
+	}
+
+	static Optional<MobState> decode (String encoded) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(DECODER.decode(encoded));
+			if (buffer.get() != FORMAT_VERSION) {
+				return Optional.empty();
+			}
+			int variationId = buffer.getInt();
+			int zigzag = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte part = buffer.get();
+				zigzag |= (part & 0x7F) << shift;
+				if ((part & 0x80) == 0) {
+					break;
+				}
+				if (shift >= 28) {
+					return Optional.empty();
+				}
+			}
+			int level = (zigzag >>> 1) ^ -(zigzag & 1);
+			int seed = buffer.getInt();
+			return buffer.hasRemaining() ? Optional.empty() : Optional.of(new MobState(variationId, level, seed));
+		} catch (IllegalArgumentException | BufferUnderflowException exception) {
+			return Optional.empty();
+		}
+	}
+
+	private static void writeInt (ByteArrayOutputStream bytes, int value) {
+		bytes.write(value >>> 24);
+		bytes.write(value >>> 16);
+		bytes.write(value >>> 8);
+		bytes.write(value);
+	}
+}
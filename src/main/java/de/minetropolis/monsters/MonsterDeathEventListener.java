@@ -17,6 +17,8 @@
 
 package de.minetropolis.monsters;
 
+import java.util.Map;
+import java.util.Optional;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -29,23 +31,75 @@ import org.bukkit.metadata.MetadataValue;
  */
 public class MonsterDeathEventListener implements Listener {
 
-	public MonsterDeathEventListener () {
+	private final DropCoalescer coalescer;
+	private final MonsterSpawnEventListener spawnListener;
+
+	public MonsterDeathEventListener (DropCoalescer coalescer, MonsterSpawnEventListener spawnListener) {
+		this.coalescer = coalescer;
+		this.spawnListener = spawnListener;
 	}
 
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	public void onMonsterDeath(final EntityDeathEvent event) {
-		LivingEntity entity = event.getEntity();
-		if (!entity.hasMetadata("dynamicMonstersDrops")) {
+		EntityDeathData deathData = getDeathData(event.getEntity());
+		if (deathData == null) {
 			return;
 		}
-		MetadataValue meta = entity.getMetadata("dynamicMonstersDrops").get(0);
-		if (!(meta.value() instanceof EntityDeathData)) {
-			return;
+		if (deathData.scalesVanillaDrops()) {
+			deathData.scaleVanillaDrops(event.getDrops());
 		}
-		EntityDeathData deathData = (EntityDeathData) meta.value();
-		event.getDrops().addAll(deathData.getDrops());
+		deathData.transferDrops(event.getDrops());
 		if (deathData.getDroppedExp() >= 0) {
 			event.setDroppedExp(deathData.getDroppedExp());
 		}
+		int overflowExperience = coalescer.coalesce(event.getDrops());
+		if (overflowExperience > 0) {
+			event.setDroppedExp(event.getDroppedExp() + overflowExperience);
+		}
+	}
+
+	/**
+	 * Returns the death data rolled at spawn or ahead by the {@link DeathDataPrecomputer}. Pending death data that was
+	 * not rolled yet is rolled now. Entities that lost it in a chunk unload or restart get it rolled again from their
+	 * {@link MobState}, with the variables of their current location.
+	 */
+	private EntityDeathData getDeathData (LivingEntity entity) {
+		if (entity.hasMetadata("dynamicMonstersDrops")) {
+			MetadataValue meta = entity.getMetadata("dynamicMonstersDrops").get(0);
+			if (meta.value() instanceof EntityDeathData) {
+				return (EntityDeathData) meta.value();
+			}
+			if (meta.value() instanceof PendingDeathData) {
+				PendingDeathData pending = (PendingDeathData) meta.value();
+				EntityDeathData precomputed = pending.getPrecomputed(spawnListener.getFailureMonitor());
+				return precomputed != null
+					   ? precomputed
+					   : createDeathData(pending.getVariation(), pending.getVariables(), pending.getSeed());
+			}
+		}
+		Optional<MobState> state = MobState.of(entity);
+		if (!state.isPresent()) {
+			return null;
+		}
+		EntityVariation variation = spawnListener.getVariation(entity.getType(), state.get().getVariationId());
+		if (variation == null) {
+			return null;
+		}
+		Map<String, Double> variables = spawnListener.createVariables(entity.getLocation());
+		variables.put("level", (double) state.get().getLevel());
+		return createDeathData(variation, variables, state.get().getSeed());
+	}
+
+	private EntityDeathData createDeathData (EntityVariation variation, Map<String, Double> variables, int seed) {
+		FailureMonitor monitor = spawnListener.getFailureMonitor();
+		if (monitor == null) {
+			return variation.createDeathData(variables, seed);
+		}
+		try {
+			return variation.createDeathData(variables, seed, monitor);
+		} catch (RuntimeException exception) {
+			monitor.recordFailure(variation, variation.getFailureName(), exception);
+			return null;
+		}
 	}
 }
@@ -17,15 +17,23 @@
 package de.minetropolis.monsters;
 
 import de.minetropolis.monsters.math.Calculation;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import org.bukkit.Location;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 
 /**
  *
@@ -33,7 +41,16 @@ import org.bukkit.event.entity.CreatureSpawnEvent;
 public final class MonsterSpawnEventListener implements Listener {
 
 	private final Map<String, Calculation> worlds = new HashMap<>();
-	private final Map<EntityType, Set<EntityVariation>> entities = new HashMap<>();
+	private final Map<EntityType, Map<SpawnReason, Set<EntityVariation>>> entities = new EnumMap<>(EntityType.class);
+	private final Map<EntityType, Set<SpawnReason>> entityReasons = new EnumMap<>(EntityType.class);
+	private final Map<EntityType, Map<Integer, EntityVariation>> variationsById = new EnumMap<>(EntityType.class);
+	private final List<SpawnVariableProvider> variableProviders = new ArrayList<>();
+	private Set<SpawnReason> handledReasons = EnumSet.allOf(SpawnReason.class);
+	private Set<SpawnReason> defaultReasons = EnumSet.allOf(SpawnReason.class);
+	private final Map<String, Set<SpawnReason>> worldReasons = new HashMap<>();
+	private SpawnerOutcomeCache spawnerCache = null;
+	private SpawnJournal journal = new SpawnJournal();
+	private FailureMonitor monitor = null;
 
 	/**
 	 *
@@ -44,11 +61,248 @@ public final class MonsterSpawnEventListener implements Listener {
 	public void setWorldsConfiguration (Map<String, Calculation> worldsConfiguration) {
 		this.worlds.clear();
 		this.worlds.putAll(worldsConfiguration);
+		if (this.spawnerCache != null) {
+			this.spawnerCache.clear();
+		}
+	}
+
+	/**
+	 * Sets the cache that lets entities of a spawner reuse the variables and level of the spawner's first entity.
+	 *
+	 * @param spawnerCache cache to use or null to calculate every spawn
+	 */
+	public void setSpawnerCache (SpawnerOutcomeCache spawnerCache) {
+		this.spawnerCache = spawnerCache;
+	}
+
+	/**
+	 * Sets the journal spawn decisions are recorded in.
+	 *
+	 * @param journal journal to record in
+	 */
+	public void setJournal (SpawnJournal journal) {
+		this.journal = Objects.requireNonNull(journal);
+		for (Map.Entry<EntityType, Map<Integer, EntityVariation>> variations : this.variationsById.entrySet()) {
+			journal.addVariations(variations.getKey(), variations.getValue().values());
+		}
 	}
 
+	/**
+	 * Sets the monitor that disables failing world calculations, variations and drops.
+	 *
+	 * @param monitor monitor to use or null to let failures reach the event system
+	 */
+	public void setFailureMonitor (FailureMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Returns the monitor of failing world calculations, variations and drops.
+	 *
+	 * @return monitor or null if failures are not monitored
+	 */
+	public FailureMonitor getFailureMonitor () {
+		return this.monitor;
+	}
+
+	/**
+	 * Sets the variations of all entity types. The variations are grouped by the spawn reasons they allow, entity types
+	 * without variation for a reason are skipped for that reason.
+	 *
+	 * @param entitiesConfiguration variations per entity type
+	 */
 	public void setEntitiesConfiguration (Map<EntityType, Set<EntityVariation>> entitiesConfiguration) {
 		this.entities.clear();
-		this.entities.putAll(entitiesConfiguration);
+		this.entityReasons.clear();
+		this.variationsById.clear();
+		for (Map.Entry<EntityType, Set<EntityVariation>> entity : entitiesConfiguration.entrySet()) {
+			Map<Integer, EntityVariation> variationIds = new HashMap<>();
+			for (EntityVariation variation : entity.getValue()) {
+				EntityVariation collision = variationIds.putIfAbsent(variation.getId(), variation);
+				if (collision != null) {
+					throw new IllegalArgumentException("variations " + collision.getName() + " and " + variation.getName()
+													   + " of " + entity.getKey() + " have the same id");
+				}
+			}
+			this.variationsById.put(entity.getKey(), variationIds);
+			this.journal.addVariations(entity.getKey(), entity.getValue());
+			Map<SpawnReason, Set<EntityVariation>> variationsByReason = new EnumMap<>(SpawnReason.class);
+			for (SpawnReason reason : SpawnReason.values()) {
+				Set<EntityVariation> variations = new HashSet<>();
+				for (EntityVariation variation : entity.getValue()) {
+					if (variation.allowsSpawnReason(reason)) {
+						variations.add(variation);
+					}
+				}
+				if (!variations.isEmpty()) {
+					variationsByReason.put(reason, variations);
+				}
+			}
+			if (!variationsByReason.isEmpty()) {
+				this.entities.put(entity.getKey(), variationsByReason);
+				this.entityReasons.put(entity.getKey(), EnumSet.copyOf(variationsByReason.keySet()));
+			}
+		}
+	}
+
+	/**
+	 * Sets the spawn reasons that get handled. Spawns for other reasons are left untouched.
+	 *
+	 * @param defaultReasons reasons handled in worlds without own reasons
+	 * @param worldReasons   reasons per world
+	 */
+	public void setSpawnReasons (Set<SpawnReason> defaultReasons, Map<String, Set<SpawnReason>> worldReasons) {
+		Set<SpawnReason> handled = EnumSet.noneOf(SpawnReason.class);
+		handled.addAll(defaultReasons);
+		this.worldReasons.clear();
+		for (Map.Entry<String, Set<SpawnReason>> world : worldReasons.entrySet()) {
+			Set<SpawnReason> reasons = EnumSet.noneOf(SpawnReason.class);
+			reasons.addAll(world.getValue());
+			this.worldReasons.put(world.getKey(), reasons);
+			handled.addAll(reasons);
+		}
+		Set<SpawnReason> defaults = EnumSet.noneOf(SpawnReason.class);
+		defaults.addAll(defaultReasons);
+		this.defaultReasons = defaults;
+		this.handledReasons = handled;
+	}
+
+	/**
+	 * Adds a provider whose variables get set for every spawn before the world calculation runs.
+	 *
+	 * @param provider provider to add
+	 */
+	public void addVariableProvider (SpawnVariableProvider provider) {
+		this.variableProviders.add(provider);
+	}
+
+	/**
+	 * Collects the variables of all providers for the given location, without running the world calculation.
+	 *
+	 * @param location location to collect variables for
+	 * @return new map of variables
+	 */
+	public Map<String, Double> createVariables (Location location) {
+		Map<String, Double> variables = new HashMap<>();
+		fillVariables(location, variables);
+		return variables;
+	}
+
+	/**
+	 * Puts the variables of all providers for the given location into the variables map. Must only be called from the
+	 * main thread.
+	 *
+	 * @param location  location to collect variables for
+	 * @param variables variables map to fill
+	 */
+	public void fillVariables (Location location, Map<String, Double> variables) {
+		variables.put("x", location.getX());
+		variables.put("y", location.getY());
+		variables.put("z", location.getZ());
+		for (int index = 0; index < this.variableProviders.size(); index++) {
+			this.variableProviders.get(index).provideVariables(location, variables);
+		}
+	}
+
+	/**
+	 * Puts the given coordinates and the neutral values of all providers into the variables map. Safe to call from any
+	 * thread.
+	 *
+	 * @param x         x coordinate
+	 * @param y         y coordinate
+	 * @param z         z coordinate
+	 * @param variables variables map to fill
+	 */
+	public void fillDefaultVariables (double x, double y, double z, Map<String, Double> variables) {
+		variables.put("x", x);
+		variables.put("y", y);
+		variables.put("z", z);
+		for (int index = 0; index < this.variableProviders.size(); index++) {
+			this.variableProviders.get(index).provideDefaultVariables(variables);
+		}
+	}
+
+	/**
+	 * Collects the variables for the given location and runs the calculation of its world. Failures are recorded like
+	 * on spawns, the calculation of a disabled world is not run.
+	 *
+	 * @param location location to calculate
+	 * @return new map of variables including a level that fits an int, or null if the world has no calculation, it is
+	 *         disabled or it failed
+	 */
+	public Map<String, Double> calculateVariables (Location location) {
+		String world = location.getWorld().getName();
+		Calculation calculation = this.worlds.get(world);
+		if (calculation == null || this.monitor != null && this.monitor.isOpen(calculation)) {
+			return null;
+		}
+		Map<String, Double> variables = createVariables(location);
+		try {
+			calculation.executeCalculation(variables);
+			Math.toIntExact(Math.round(variables.get("level")));
+		} catch (RuntimeException exception) {
+			if (this.monitor == null) {
+				throw exception;
+			}
+			this.monitor.recordFailure(calculation, "World " + world, exception);
+			return null;
+		}
+		return variables;
+	}
+
+	/**
+	 * Puts the neutral values of all providers for the given coordinates into a new map and runs the calculation of the
+	 * world. Safe to call without a server.
+	 *
+	 * @param world name of the world
+	 * @param x     x coordinate
+	 * @param y     y coordinate
+	 * @param z     z coordinate
+	 * @return new map of variables including the level or null if the world has no calculation
+	 */
+	public Map<String, Double> calculateDefaultVariables (String world, double x, double y, double z) {
+		Calculation calculation = this.worlds.get(world);
+		if (calculation == null) {
+			return null;
+		}
+		Map<String, Double> variables = new HashMap<>();
+		fillDefaultVariables(x, y, z, variables);
+		calculation.executeCalculation(variables);
+		return variables;
+	}
+
+	/**
+	 * Returns the variations a spawn chooses from.
+	 *
+	 * @param world  name of the world
+	 * @param type   entity type of the spawn
+	 * @param reason reason of the spawn
+	 * @return variations or null if the spawn is left untouched
+	 */
+	public Set<EntityVariation> getVariations (String world, EntityType type, SpawnReason reason) {
+		if (!this.handledReasons.contains(reason)) {
+			return null;
+		}
+		Set<SpawnReason> typeReasons = this.entityReasons.get(type);
+		if (typeReasons == null || !typeReasons.contains(reason)) {
+			return null;
+		}
+		if (!this.worlds.containsKey(world) || !this.worldReasons.getOrDefault(world, this.defaultReasons).contains(reason)) {
+			return null;
+		}
+		return this.entities.get(type).get(reason);
+	}
+
+	/**
+	 * Finds a variation by its id.
+	 *
+	 * @param type        entity type of the variation
+	 * @param variationId id of the variation
+	 * @return variation or null if the entity type has no variation with this id
+	 */
+	public EntityVariation getVariation (EntityType type, int variationId) {
+		Map<Integer, EntityVariation> variations = this.variationsById.get(type);
+		return variations == null ? null : variations.get(variationId);
 	}
 
 	/**
@@ -57,20 +311,44 @@ public final class MonsterSpawnEventListener implements Listener {
 	 */
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	public void onMonsterSpawn (final CreatureSpawnEvent spawnEvent) {
+		SpawnReason reason = spawnEvent.getSpawnReason();
+		if (!this.handledReasons.contains(reason)) {
+			return;
+		}
 		LivingEntity entity = spawnEvent.getEntity();
 		String world = entity.getWorld().getName();
-		EntityType type = entity.getType();
-		if (!this.worlds.containsKey(world) || !this.entities.containsKey(type)) {
+		Set<EntityVariation> variations = getVariations(world, entity.getType(), reason);
+		if (variations == null) {
+			return;
+		}
+		boolean fromSpawner = reason == SpawnReason.SPAWNER && this.spawnerCache != null;
+		if (fromSpawner) {
+			SpawnerOutcomeCache.Outcome outcome = this.spawnerCache.get(entity);
+			if (outcome != null) {
+				EntityVariation.modifyEntityWeighted(variations, entity, outcome.getVariables(), outcome.getLevel(), this.journal, this.monitor);
+				return;
+			}
+		}
+		Calculation calculation = this.worlds.get(world);
+		if (this.monitor != null && this.monitor.isOpen(calculation)) {
+			return;
+		}
+		Map<String, Double> variables = createVariables(entity.getLocation());
+		int level;
+		try {
+			calculation.executeCalculation(variables);
+			level = Math.toIntExact(Math.round(variables.get("level")));
+		} catch (RuntimeException exception) {
+			if (this.monitor == null) {
+				throw exception;
+			}
+			this.monitor.recordFailure(calculation, "World " + world, exception);
 			return;
 		}
-		Map<String, Double> variables = new HashMap<>();
-		variables.put("x", entity.getLocation().getX());
-		variables.put("y", entity.getLocation().getY());
-		variables.put("z", entity.getLocation().getZ());
-		worlds.get(world).executeCalculation(variables);
-
-		int level = Math.toIntExact(Math.round(variables.get("level")));
 
-		EntityVariation.modifyEntityWeighted(entities.get(type), entity, variables, level);
+		if (fromSpawner) {
+			this.spawnerCache.put(entity, variables, level);
+		}
+		EntityVariation.modifyEntityWeighted(variations, entity, variables, level, this.journal, this.monitor);
 	}
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Death data of an entity that is rolled when it is needed instead of at spawn. It can be rolled ahead on a worker
+ * thread, the calculations of a variation are thread safe and the variables are copied, so the worker never sees
+ * changes made on the main thread.
+ */
+public final class PendingDeathData {
+
+	private final EntityVariation variation;
+	private final Map<String, Double> variables;
+	private final int seed;
+	private CompletableFuture<EntityDeathData> precomputed = null;
+
+	public PendingDeathData (EntityVariation variation, Map<String, Double> variables, int seed) {
+		this.variation = variation;
+		this.variables = new HashMap<>(variables);
+		this.seed = seed;
+	}
+
+	public EntityVariation getVariation () {
+		return variation;
+	}
+
+	public Map<String, Double> getVariables () {
+		return variables;
+	}
+
+	public int getSeed () {
+		return seed;
+	}
+
+	/**
+	 * Starts rolling the death data on the given executor, unless it was started before. Only call this from the main
+	 * thread.
+	 *
+	 * @param executor executor to roll on
+	 * @return true if rolling was started by this call
+	 */
+	public boolean precompute (Executor executor) {
+		if (precomputed != null) {
+			return false;
+		}
+		precomputed = CompletableFuture.supplyAsync(() -> variation.createDeathData(variables, seed), executor);
+		return true;
+	}
+
+	/**
+	 * Returns the death data rolled ahead, if it is done and did not fail. Failed rolls are left to the caller to roll
+	 * again, so the failure is recorded on the main thread. The worker rolls without the failure monitor, so the
+	 * result is dropped as well while the monitor disables one of the variation's drops.
+	 *
+	 * @param monitor monitor of failing drops or null
+	 * @return rolled death data or null
+	 */
+	public EntityDeathData getPrecomputed (FailureMonitor monitor) {
+		if (precomputed == null || !precomputed.isDone() || precomputed.isCompletedExceptionally()) {
+			return null;
+		}
+		if (monitor != null && variation.hasOpenDrops(monitor)) {
+			return null;
+		}
+		return precomputed.join();
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+/**
+ * Keeps a per-world grid of online players at chunk granularity.
+ * <p>
+ * The grid is only touched when a player crosses a chunk border, so a spawn only has to look at the chunks within
+ * the configured radius instead of iterating over every player of the world.
+ */
+public final class PlayerProximityIndex implements Listener, SpawnVariableProvider {
+
+	public static final String NEAREST_PLAYER_DISTANCE = "nearestPlayerDistance";
+	public static final String NEARBY_PLAYER_COUNT = "nearbyPlayerCount";
+	public static final String AVERAGE_NEARBY_PLAYER_LEVEL = "avgNearbyPlayerLevel";
+
+	public static final Set<String> PROVIDED_VARIABLES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			NEAREST_PLAYER_DISTANCE, NEARBY_PLAYER_COUNT, AVERAGE_NEARBY_PLAYER_LEVEL)));
+
+	private final Map<String, Map<Long, List<Player>>> worlds = new HashMap<>();
+	private final Map<UUID, Cell> cells = new HashMap<>();
+
+	private int radius = 64;
+	private int chunkRadius = 4;
+
+	public PlayerProximityIndex () {
+	}
+
+	/**
+	 * Sets the radius in blocks in which players count as nearby.
+	 *
+	 * @param radius radius in blocks
+	 */
+	public void setRadius (int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("negative radius");
+		}
+		this.radius = radius;
+		this.chunkRadius = (radius + 15) >> 4;
+	}
+
+	/**
+	 * Rebuilds the whole index, e.g. after the plugin got enabled while players were already online.
+	 *
+	 * @param players all online players
+	 */
+	public void rebuild (Collection<? extends Player> players) {
+		this.worlds.clear();
+		this.cells.clear();
+		for (Player player : players) {
+			update(player, player.getLocation());
+		}
+	}
+
+	@Override
+	public Set<String> getProvidedVariables () {
+		return PROVIDED_VARIABLES;
+	}
+
+	@Override
+	public void provideVariables (Location location, Map<String, Double> variables) {
+		double radiusSquared = (double) this.radius * this.radius;
+		double nearestSquared = radiusSquared;
+		int count = 0;
+		long levelSum = 0;
+		Map<Long, List<Player>> grid = this.worlds.get(location.getWorld().getName());
+		if (grid != null && !grid.isEmpty()) {
+			double x = location.getX();
+			double y = location.getY();
+			double z = location.getZ();
+			int centerX = location.getBlockX() >> 4;
+			int centerZ = location.getBlockZ() >> 4;
+			for (int chunkX = centerX - this.chunkRadius; chunkX <= centerX + this.chunkRadius; chunkX++) {
+				for (int chunkZ = centerZ - this.chunkRadius; chunkZ <= centerZ + this.chunkRadius; chunkZ++) {
+					List<Player> players = grid.get(chunkKey(chunkX, chunkZ));
+					if (players == null) {
+						continue;
+					}
+					for (int index = 0; index < players.size(); index++) {
+						Player player = players.get(index);
+						if (player.getGameMode() == GameMode.SPECTATOR) {
+							continue;
+						}
+						Location playerLocation = player.getLocation();
+						double deltaX = playerLocation.getX() - x;
+						double deltaY = playerLocation.getY() - y;
+						double deltaZ = playerLocation.getZ() - z;
+						double distanceSquared = deltaX * deltaX + deltaY * deltaY + deltaZ * deltaZ;
+						if (distanceSquared > radiusSquared) {
+							continue;
+						}
+						count++;
+						levelSum += player.getLevel();
+						nearestSquared = Math.min(nearestSquared, distanceSquared);
+					}
+				}
+			}
+		}
+		variables.put(NEAREST_PLAYER_DISTANCE, Math.sqrt(nearestSquared));
+		variables.put(NEARBY_PLAYER_COUNT, (double) count);
+		variables.put(AVERAGE_NEARBY_PLAYER_LEVEL, count == 0 ? 0d : (double) levelSum / count);
+	}
+
+	@Override
+	public void provideDefaultVariables (Map<String, Double> variables) {
+		variables.put(NEAREST_PLAYER_DISTANCE, (double) this.radius);
+		variables.put(NEARBY_PLAYER_COUNT, 0d);
+		variables.put(AVERAGE_NEARBY_PLAYER_LEVEL, 0d);
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onPlayerMove (final PlayerMoveEvent event) {
+		Location from = event.getFrom();
+		Location to = event.getTo();
+		if (from.getWorld() == to.getWorld() && from.getBlockX() >> 4 == to.getBlockX() >> 4
+			&& from.getBlockZ() >> 4 == to.getBlockZ() >> 4) {
+			return;
+		}
+		update(event.getPlayer(), to);
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onPlayerTeleport (final PlayerTeleportEvent event) {
+		update(event.getPlayer(), event.getTo());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerJoin (final PlayerJoinEvent event) {
+		update(event.getPlayer(), event.getPlayer().getLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerChangedWorld (final PlayerChangedWorldEvent event) {
+		update(event.getPlayer(), event.getPlayer().getLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerRespawn (final PlayerRespawnEvent event) {
+		update(event.getPlayer(), event.getRespawnLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit (final PlayerQuitEvent event) {
+		Cell cell = this.cells.remove(event.getPlayer().getUniqueId());
+		if (cell != null) {
+			removeFromGrid(event.getPlayer(), cell);
+		}
+	}
+
+	private void update (Player player, Location location) {
+		String world = location.getWorld().getName();
+		long key = chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+		Cell cell = this.cells.get(player.getUniqueId());
+		if (cell != null) {
+			if (cell.key == key && cell.world.equals(world)) {
+				return;
+			}
+			removeFromGrid(player, cell);
+		}
+		this.cells.put(player.getUniqueId(), new Cell(world, key));
+		this.worlds.computeIfAbsent(world, name -> new HashMap<>())
+				.computeIfAbsent(key, chunk -> new ArrayList<>(2))
+				.add(player);
+	}
+
+	private void removeFromGrid (Player player, Cell cell) {
+		Map<Long, List<Player>> grid = this.worlds.get(cell.world);
+		if (grid == null) {
+			return;
+		}
+		List<Player> players = grid.get(cell.key);
+		if (players == null) {
+			return;
+		}
+		players.remove(player);
+		if (players.isEmpty()) {
+			grid.remove(cell.key);
+		}
+	}
+
+	private static long chunkKey (int chunkX, int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	private static final class Cell {
+
+		private final String world;
+		private final long key;
+
+		private Cell (String world, long key) {
+			this.world = world;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+/**
+ * Updates level, name and attributes of entities that were changed with an older configuration.
+ * <p>
+ * Loaded chunks are queued after a reload and whenever a chunk loads. Every tick works off the queues until the budget
+ * is used up, scanning a chunk and re-leveling an entity cost one unit each, so no tick ever walks a whole world.
+ */
+public final class RelevelQueue implements Listener, Runnable {
+
+	private final MonsterSpawnEventListener spawnListener;
+	private final Deque<Chunk> chunks = new ArrayDeque<>();
+	private final Deque<LivingEntity> entities = new ArrayDeque<>();
+	private boolean enabled = false;
+	private int budget = 50;
+
+	public RelevelQueue (MonsterSpawnEventListener spawnListener) {
+		this.spawnListener = spawnListener;
+	}
+
+	/**
+	 * Enables or disables re-leveling, disabling drops all queued work.
+	 *
+	 * @param enabled whether entities get re-leveled
+	 */
+	public void setEnabled (boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			this.chunks.clear();
+			this.entities.clear();
+		}
+	}
+
+	/**
+	 * Sets how much work is done per tick.
+	 *
+	 * @param budget chunks scanned plus entities re-leveled per tick
+	 */
+	public void setBudget (int budget) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("budget must be positive");
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Queues all loaded chunks of the given worlds.
+	 *
+	 * @param worlds worlds to sweep
+	 */
+	public void sweep (Collection<World> worlds) {
+		if (!this.enabled) {
+			return;
+		}
+		this.chunks.clear();
+		this.entities.clear();
+		for (World world : worlds) {
+			for (Chunk chunk : world.getLoadedChunks()) {
+				this.chunks.add(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Amount of queued chunks and entities.
+	 *
+	 * @return queued work
+	 */
+	public int size () {
+		return this.chunks.size() + this.entities.size();
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad (final ChunkLoadEvent event) {
+		if (this.enabled) {
+			this.chunks.add(event.getChunk());
+		}
+	}
+
+	@Override
+	public void run () {
+		int remaining = this.budget;
+		while (remaining > 0) {
+			LivingEntity entity = this.entities.poll();
+			if (entity != null) {
+				if (entity.isValid()) {
+					relevel(entity);
+				}
+			} else {
+				Chunk chunk = this.chunks.poll();
+				if (chunk == null) {
+					return;
+				}
+				if (chunk.isLoaded()) {
+					for (Entity chunkEntity : chunk.getEntities()) {
+						if (chunkEntity instanceof LivingEntity) {
+							this.entities.add((LivingEntity) chunkEntity);
+						}
+					}
+				}
+			}
+			remaining--;
+		}
+	}
+
+	private void relevel (LivingEntity entity) {
+		Optional<MobState> state = MobState.of(entity);
+		if (!state.isPresent()) {
+			return;
+		}
+		EntityVariation variation = this.spawnListener.getVariation(entity.getType(), state.get().getVariationId());
+		if (variation == null) {
+			return;
+		}
+		Map<String, Double> variables = this.spawnListener.calculateVariables(entity.getLocation());
+		if (variables == null) {
+			return;
+		}
+		int level = Math.toIntExact(Math.round(variables.get("level")));
+		if (level == state.get().getLevel()) {
+			return;
+		}
+		FailureMonitor monitor = this.spawnListener.getFailureMonitor();
+		if (monitor == null) {
+			variation.relevelEntity(entity, variables, level, state.get().getSeed(), null);
+			return;
+		}
+		if (monitor.isOpen(variation)) {
+			return;
+		}
+		try {
+			variation.relevelEntity(entity, variables, level, state.get().getSeed(), monitor);
+		} catch (RuntimeException exception) {
+			monitor.recordFailure(variation, variation.getFailureName(), exception);
+		}
+	}
+}
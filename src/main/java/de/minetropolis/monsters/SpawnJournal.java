@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.attribute.Attribute;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Keeps the last spawn decisions in memory to answer questions like "why did this zombie have 400 HP?".
+ * <p>
+ * All entries live in primitive arrays allocated once per size, recording a spawn only overwrites the oldest slot and
+ * takes no lock. Entity types and attributes are kept as ordinals, worlds as index into the worlds seen and variations
+ * by their {@link MobState} id, names are only looked up when the journal is written. Entries are only written from
+ * the main thread, a dump copies the arrays there and writes the file elsewhere.
+ */
+public final class SpawnJournal {
+
+	private static final EntityType[] TYPES = EntityType.values();
+	private static final Attribute[] ATTRIBUTES = Attribute.values();
+	private static final int MAXIMUM_ATTRIBUTES = ATTRIBUTES.length;
+
+	private int capacity = 0;
+	private long written = 0;
+	private List<String> worldNames = new ArrayList<>();
+	private Map<Long, String> variationNames = new HashMap<>();
+	private long[] times;
+	private long[] uuidsMost;
+	private long[] uuidsLeast;
+	private int[] entityIds;
+	private int[] types;
+	private int[] worlds;
+	private double[] xs;
+	private double[] ys;
+	private double[] zs;
+	private int[] levels;
+	private int[] variations;
+	private int[] attributeCounts;
+	private int[] attributeTypes;
+	private double[] attributeValues;
+
+	public SpawnJournal () {
+		setCapacity(0);
+	}
+
+	/**
+	 * Sets how many spawns are kept. Changing the size drops all entries.
+	 *
+	 * @param capacity number of spawns kept, 0 disables the journal
+	 */
+	public void setCapacity (int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		if (capacity == this.capacity && this.times != null) {
+			return;
+		}
+		this.capacity = capacity;
+		this.written = 0;
+		this.times = new long[capacity];
+		this.uuidsMost = new long[capacity];
+		this.uuidsLeast = new long[capacity];
+		this.entityIds = new int[capacity];
+		this.types = new int[capacity];
+		this.worlds = new int[capacity];
+		this.xs = new double[capacity];
+		this.ys = new double[capacity];
+		this.zs = new double[capacity];
+		this.levels = new int[capacity];
+		this.variations = new int[capacity];
+		this.attributeCounts = new int[capacity];
+		this.attributeTypes = new int[capacity * MAXIMUM_ATTRIBUTES];
+		this.attributeValues = new double[capacity * MAXIMUM_ATTRIBUTES];
+	}
+
+	public boolean isEnabled () {
+		return this.capacity > 0;
+	}
+
+	/**
+	 * Makes the names of variations known, so their ids can be written. Names are kept across reloads for the entries
+	 * recorded before.
+	 *
+	 * @param type       entity type the variations belong to
+	 * @param variations variations of the entity type
+	 */
+	public void addVariations (EntityType type, Collection<EntityVariation> variations) {
+		for (EntityVariation variation : variations) {
+			this.variationNames.put(variationKey(type.ordinal(), variation.getId()), variation.getName());
+		}
+	}
+
+	private static long variationKey (int type, int variation) {
+		return ((long) type << 32) | (variation & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Records the decision for a spawn.
+	 *
+	 * @param entity    changed entity
+	 * @param variation chosen variation
+	 * @param level     level of the entity
+	 * @return slot to add attribute values to or -1 if the journal is disabled
+	 */
+	public int record (LivingEntity entity, EntityVariation variation, int level) {
+		if (this.capacity == 0) {
+			return -1;
+		}
+		int slot = (int) (this.written++ % this.capacity);
+		UUID uuid = entity.getUniqueId();
+		Location location = entity.getLocation();
+		this.times[slot] = System.currentTimeMillis();
+		this.uuidsMost[slot] = uuid.getMostSignificantBits();
+		this.uuidsLeast[slot] = uuid.getLeastSignificantBits();
+		this.entityIds[slot] = entity.getEntityId();
+		this.types[slot] = entity.getType().ordinal();
+		this.worlds[slot] = worldIndex(location.getWorld().getName());
+		this.xs[slot] = location.getX();
+		this.ys[slot] = location.getY();
+		this.zs[slot] = location.getZ();
+		this.levels[slot] = level;
+		this.variations[slot] = variation.getId();
+		this.attributeCounts[slot] = 0;
+		return slot;
+	}
+
+	private int worldIndex (String world) {
+		int index = this.worldNames.indexOf(world);
+		if (index < 0) {
+			index = this.worldNames.size();
+			this.worldNames.add(world);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds an attribute value to a recorded spawn.
+	 *
+	 * @param slot      slot returned by {@link #record(LivingEntity, EntityVariation, int)}
+	 * @param attribute attribute set
+	 * @param value     base value of the attribute
+	 */
+	public void recordAttribute (int slot, Attribute attribute, double value) {
+		if (slot < 0 || this.attributeCounts[slot] == MAXIMUM_ATTRIBUTES) {
+			return;
+		}
+		int index = slot * MAXIMUM_ATTRIBUTES + this.attributeCounts[slot]++;
+		this.attributeTypes[index] = attribute.ordinal();
+		this.attributeValues[index] = value;
+	}
+
+	/**
+	 * Copies all entries, so they can be written from another thread while spawns go on.
+	 *
+	 * @return independent copy of this journal
+	 */
+	public SpawnJournal copy () {
+		SpawnJournal copy = new SpawnJournal();
+		copy.capacity = this.capacity;
+		copy.written = this.written;
+		copy.worldNames = new ArrayList<>(this.worldNames);
+		copy.variationNames = new HashMap<>(this.variationNames);
+		copy.times = this.times.clone();
+		copy.uuidsMost = this.uuidsMost.clone();
+		copy.uuidsLeast = this.uuidsLeast.clone();
+		copy.entityIds = this.entityIds.clone();
+		copy.types = this.types.clone();
+		copy.worlds = this.worlds.clone();
+		copy.xs = this.xs.clone();
+		copy.ys = this.ys.clone();
+		copy.zs = this.zs.clone();
+		copy.levels = this.levels.clone();
+		copy.variations = this.variations.clone();
+		copy.attributeCounts = this.attributeCounts.clone();
+		copy.attributeTypes = this.attributeTypes.clone();
+		copy.attributeValues = this.attributeValues.clone();
+		return copy;
+	}
+
+	/**
+	 * Returns how many spawns are in the journal.
+	 *
+	 * @return number of entries
+	 */
+	public int size () {
+		return (int) Math.min(this.written, this.capacity);
+	}
+
+	/**
+	 * Writes all entries from oldest to newest as tab separated lines. The file is replaced at once, readers never see
+	 * a partial dump.
+	 *
+	 * @param file file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeTo (Path file) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			writer.write("time\tuuid\tid\ttype\tworld\tx\ty\tz\tlevel\tvariation\tattributes");
+			writer.newLine();
+			for (long entry = this.written - size(); entry < this.written; entry++) {
+				int slot = (int) (entry % this.capacity);
+				StringBuilder line = new StringBuilder(160);
+				line.append(Instant.ofEpochMilli(this.times[slot])).append('\t')
+						.append(new UUID(this.uuidsMost[slot], this.uuidsLeast[slot])).append('\t')
+						.append(this.entityIds[slot]).append('\t')
+						.append(TYPES[this.types[slot]]).append('\t')
+						.append(this.worldNames.get(this.worlds[slot])).append('\t')
+						.append(String.format(Locale.ROOT, "%.2f\t%.2f\t%.2f", this.xs[slot], this.ys[slot], this.zs[slot])).append('\t')
+						.append(this.levels[slot]).append('\t')
+						.append(this.variationNames.getOrDefault(variationKey(this.types[slot], this.variations[slot]),
+																 Integer.toHexString(this.variations[slot]))).append('\t');
+				for (int attribute = 0; attribute < this.attributeCounts[slot]; attribute++) {
+					int index = slot * MAXIMUM_ATTRIBUTES + attribute;
+					if (attribute > 0) {
+						line.append(',');
+					}
+					line.append(ATTRIBUTES[this.attributeTypes[index]]).append('=').append(this.attributeValues[index]);
+				}
+				writer.write(line.toString());
+				writer.newLine();
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
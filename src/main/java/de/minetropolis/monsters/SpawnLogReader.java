@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
+
+/**
+ * Streams the spawns of a log written by {@link SpawnRecorder}. Only the current frame is held in memory, so logs of
+ * any length can be read. Ticks continue across sessions.
+ * <p>
+ * Frames are checked against their checksum. A damaged frame, like the last frame of a session cut off by a crash, is
+ * dropped together with the rest of its session, and reading resumes at the next frame starting a session. A truncated
+ * last frame ends the log.
+ */
+public final class SpawnLogReader implements Closeable {
+
+	private final PushbackInputStream input;
+	private final List<String> worlds = new ArrayList<>();
+	private final List<EntityType> types = new ArrayList<>();
+	private final List<SpawnReason> reasons = new ArrayList<>();
+	private DataInputStream frame = null;
+	private boolean inSession = false;
+	private boolean firstFrame = true;
+	private String world;
+	private EntityType type;
+	private SpawnReason reason;
+	private double x;
+	private double y;
+	private double z;
+	private long tick = 0;
+	private long skipped = 0;
+	private long damaged = 0;
+
+	public SpawnLogReader (File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	public SpawnLogReader (InputStream input) {
+		this.input = new PushbackInputStream(new BufferedInputStream(input, 1 << 16),
+											 SpawnRecorder.FRAME_HEADER_BYTES + SpawnRecorder.MAXIMUM_FRAME_BYTES);
+	}
+
+	/**
+	 * Reads the next spawn. Spawns of entity types or reasons this server version does not know are skipped.
+	 *
+	 * @return whether a spawn was read
+	 * @throws IOException if the log cannot be read or is not a spawn log
+	 */
+	public boolean next () throws IOException {
+		while (true) {
+			if (this.frame == null || this.frame.available() == 0) {
+				byte[] payload = readFrame();
+				if (payload == null) {
+					return false;
+				}
+				if (payload.length > 0 && payload[0] == SpawnRecorder.SESSION) {
+					this.inSession = true;
+				} else if (!this.inSession) {
+					this.damaged++;
+					continue;
+				}
+				this.frame = new DataInputStream(new ByteArrayInputStream(payload));
+			}
+			try {
+				if (readRecord()) {
+					return true;
+				}
+			} catch (IOException exception) {
+				this.frame = null;
+				this.inSession = false;
+				this.damaged++;
+			}
+		}
+	}
+
+	/**
+	 * Reads the next frame with a valid checksum. Bytes of damaged frames are searched for the start of the next frame.
+	 *
+	 * @return payload of the frame or null at the end of the log
+	 */
+	private byte[] readFrame () throws IOException {
+		while (true) {
+			if (!skipToMagic()) {
+				return null;
+			}
+			byte[] header = new byte[SpawnRecorder.FRAME_HEADER_BYTES - 4];
+			int headerRead = readFully(header);
+			if (headerRead < header.length) {
+				return null;
+			}
+			if (header[0] != SpawnRecorder.FORMAT_VERSION) {
+				if (this.firstFrame) {
+					throw new IOException("unsupported spawn log version " + header[0]);
+				}
+				damaged(header);
+				continue;
+			}
+			this.firstFrame = false;
+			int length = readInt(header, 1);
+			if (length < 0 || length > SpawnRecorder.MAXIMUM_FRAME_BYTES) {
+				damaged(header);
+				continue;
+			}
+			byte[] payload = new byte[length];
+			int payloadRead = readFully(payload);
+			CRC32 checksum = new CRC32();
+			checksum.update(payload, 0, payloadRead);
+			if (payloadRead < length || (int) checksum.getValue() != readInt(header, 5)) {
+				this.input.unread(payload, 0, payloadRead);
+				damaged(header);
+				continue;
+			}
+			return payload;
+		}
+	}
+
+	/**
+	 * Drops the current session and puts back the bytes read after a damaged frame's magic, so they are searched for
+	 * the next frame.
+	 */
+	private void damaged (byte[] header) throws IOException {
+		this.input.unread(header);
+		this.inSession = false;
+		this.damaged++;
+	}
+
+	/**
+	 * Skips to the byte after the next magic.
+	 *
+	 * @return whether a magic was found
+	 */
+	private boolean skipToMagic () throws IOException {
+		int window = 0;
+		int read = 0;
+		while (true) {
+			int next = this.input.read();
+			if (next < 0) {
+				return false;
+			}
+			window = window << 8 | next;
+			read++;
+			if (read >= 4 && window == SpawnRecorder.MAGIC) {
+				if (read > 4) {
+					if (this.firstFrame) {
+						throw new IOException("not a spawn log");
+					}
+					this.inSession = false;
+					this.damaged++;
+				}
+				return true;
+			}
+			if (this.firstFrame && read >= 4) {
+				throw new IOException("not a spawn log");
+			}
+		}
+	}
+
+	private int readFully (byte[] bytes) throws IOException {
+		int total = 0;
+		while (total < bytes.length) {
+			int read = this.input.read(bytes, total, bytes.length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static int readInt (byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+			   | (bytes[offset + 3] & 0xFF);
+	}
+
+	private boolean readRecord () throws IOException {
+		int tag = this.frame.readUnsignedByte();
+		switch (tag) {
+			case SpawnRecorder.SESSION:
+				this.worlds.clear();
+				this.types.clear();
+				this.reasons.clear();
+				return false;
+			case SpawnRecorder.WORLD:
+				this.worlds.add(this.frame.readUTF());
+				return false;
+			case SpawnRecorder.TYPE:
+				this.types.add(parseEnum(EntityType.class, this.frame.readUTF()));
+				return false;
+			case SpawnRecorder.REASON:
+				this.reasons.add(parseEnum(SpawnReason.class, this.frame.readUTF()));
+				return false;
+			case SpawnRecorder.SPAWN:
+				if (readSpawn()) {
+					return true;
+				}
+				this.skipped++;
+				return false;
+			default:
+				throw new IOException("corrupt spawn log, unknown record " + tag);
+		}
+	}
+
+	private boolean readSpawn () throws IOException {
+		String spawnWorld = lookup(this.worlds, readVarint());
+		EntityType spawnType = lookup(this.types, readVarint());
+		SpawnReason spawnReason = lookup(this.reasons, readVarint());
+		double spawnX = readZigzag() / (double) SpawnRecorder.COORDINATE_SCALE;
+		double spawnY = readZigzag() / (double) SpawnRecorder.COORDINATE_SCALE;
+		double spawnZ = readZigzag() / (double) SpawnRecorder.COORDINATE_SCALE;
+		this.tick += readVarint();
+		if (spawnType == null || spawnReason == null) {
+			return false;
+		}
+		this.world = spawnWorld;
+		this.type = spawnType;
+		this.reason = spawnReason;
+		this.x = spawnX;
+		this.y = spawnY;
+		this.z = spawnZ;
+		return true;
+	}
+
+	private static <T> T lookup (List<T> values, long index) throws IOException {
+		if (index < 0 || index >= values.size()) {
+			throw new IOException("corrupt spawn log, undefined index " + index);
+		}
+		return values.get((int) index);
+	}
+
+	private static <E extends Enum<E>> E parseEnum (Class<E> type, String name) {
+		try {
+			return Enum.valueOf(type, name);
+		} catch (IllegalArgumentException exception) {
+			return null;
+		}
+	}
+
+	private long readVarint () throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int current = this.frame.readUnsignedByte();
+			value |= (long) (current & 0x7F) << shift;
+			if ((current & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("corrupt spawn log, varint too long");
+	}
+
+	private long readZigzag () throws IOException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public String getWorld () {
+		return this.world;
+	}
+
+	public EntityType getType () {
+		return this.type;
+	}
+
+	public SpawnReason getReason () {
+		return this.reason;
+	}
+
+	public double getX () {
+		return this.x;
+	}
+
+	public double getY () {
+		return this.y;
+	}
+
+	public double getZ () {
+		return this.z;
+	}
+
+	/**
+	 * Returns the tick of the current spawn, counted from the start of the log.
+	 *
+	 * @return tick of the current spawn
+	 */
+	public long getTick () {
+		return this.tick;
+	}
+
+	/**
+	 * Returns how many spawns were skipped because their entity type or reason is unknown.
+	 *
+	 * @return skipped spawns
+	 */
+	public long getSkipped () {
+		return this.skipped;
+	}
+
+	/**
+	 * Returns how many damaged frames or parts of the log were dropped, each may have held many spawns.
+	 *
+	 * @return dropped frames
+	 */
+	public long getDamaged () {
+		return this.damaged;
+	}
+
+	@Override
+	public void close () throws IOException {
+		this.input.close();
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.bukkit.Location;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+
+/**
+ * Appends the inputs of every spawn to a binary log, so formulas can be tuned offline with the
+ * {@link de.minetropolis.monsters.simulation.SimulationRunner}.
+ * <p>
+ * Every session starts with a session record, world names, entity types and spawn reasons are written once per session
+ * and referenced by index afterwards. A spawn takes about ten bytes: indices, coordinates in eighths of a block as
+ * zigzag varints and the ticks since the last spawn. Records are collected on the main thread and handed to a writer
+ * thread every second, the main thread never touches the file.
+ * <p>
+ * The writer appends each batch of whole records as a frame: magic, format version, payload length, CRC32 of the
+ * payload and the payload. A frame cut off by a crash is detected by its checksum and {@link SpawnLogReader} resumes
+ * at the next session.
+ */
+public final class SpawnRecorder implements Listener, Runnable {
+
+	static final int MAGIC = 0x444D5352;
+	static final byte FORMAT_VERSION = 2;
+	static final int FRAME_HEADER_BYTES = 13;
+	static final int MAXIMUM_FRAME_BYTES = 1 << 20;
+	static final byte WORLD = 1;
+	static final byte TYPE = 2;
+	static final byte REASON = 3;
+	static final byte SPAWN = 4;
+	static final byte SESSION = 5;
+	static final int COORDINATE_SCALE = 8;
+
+	private static final int FLUSH_INTERVAL = 20;
+	private static final int FLUSH_BYTES = 1 << 16;
+
+	private final File file;
+	private final Logger logger;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(FLUSH_BYTES);
+	private final DataOutputStream records = new DataOutputStream(buffer);
+	private final Map<String, Integer> worlds = new HashMap<>();
+	private final Map<String, Integer> types = new HashMap<>();
+	private final Map<String, Integer> reasons = new HashMap<>();
+	private ExecutorService writer = null;
+	private OutputStream stream = null;
+	private boolean enabled = false;
+	private long tick = 0;
+	private long lastSpawnTick = 0;
+
+	public SpawnRecorder (File file, Logger logger) {
+		this.file = file;
+		this.logger = logger;
+	}
+
+	/**
+	 * Enables or disables recording. Enabling starts a new session at the end of the log, disabling writes all pending
+	 * records and closes the log.
+	 *
+	 * @param enabled whether spawns get recorded
+	 */
+	public void setEnabled (boolean enabled) {
+		if (enabled == this.enabled) {
+			return;
+		}
+		this.enabled = enabled;
+		if (enabled) {
+			this.writer = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "DynamicMonsters spawn recorder");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.worlds.clear();
+			this.types.clear();
+			this.reasons.clear();
+			this.tick = 0;
+			this.lastSpawnTick = 0;
+			try {
+				this.records.writeByte(SESSION);
+			} catch (IOException exception) {
+				throw new IllegalStateException(exception);
+			}
+		} else {
+			close();
+		}
+	}
+
+	/**
+	 * Writes all pending records and closes the log. Blocks until the writer thread is done.
+	 */
+	public void close () {
+		this.enabled = false;
+		if (this.writer == null) {
+			return;
+		}
+		flush();
+		this.writer.execute(this::closeStream);
+		this.writer.shutdown();
+		try {
+			if (!this.writer.awaitTermination(5, TimeUnit.SECONDS)) {
+				this.logger.log(Level.WARNING, "Spawn recording did not finish writing in time.");
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		this.writer = null;
+	}
+
+	@Override
+	public void run () {
+		if (!this.enabled) {
+			return;
+		}
+		this.tick++;
+		if (this.tick % FLUSH_INTERVAL == 0) {
+			flush();
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onCreatureSpawn (final CreatureSpawnEvent spawnEvent) {
+		if (!this.enabled) {
+			return;
+		}
+		Location location = spawnEvent.getLocation();
+		record(location.getWorld().getName(), spawnEvent.getEntityType().name(), spawnEvent.getSpawnReason().name(),
+			   location.getX(), location.getY(), location.getZ());
+	}
+
+	/**
+	 * Records a spawn by the names of its world, entity type and spawn reason.
+	 */
+	void record (String world, String type, String reason, double x, double y, double z) {
+		if (!this.enabled) {
+			return;
+		}
+		try {
+			int worldIndex = index(this.worlds, world, WORLD);
+			int typeIndex = index(this.types, type, TYPE);
+			int reasonIndex = index(this.reasons, reason, REASON);
+			this.records.writeByte(SPAWN);
+			writeVarint(worldIndex);
+			writeVarint(typeIndex);
+			writeVarint(reasonIndex);
+			writeZigzag(Math.round(x * COORDINATE_SCALE));
+			writeZigzag(Math.round(y * COORDINATE_SCALE));
+			writeZigzag(Math.round(z * COORDINATE_SCALE));
+			writeVarint(this.tick - this.lastSpawnTick);
+			this.lastSpawnTick = this.tick;
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+		if (this.buffer.size() >= FLUSH_BYTES) {
+			flush();
+		}
+	}
+
+	private int index (Map<String, Integer> indices, String name, byte definition) throws IOException {
+		Integer index = indices.get(name);
+		if (index == null) {
+			index = indices.size();
+			indices.put(name, index);
+			this.records.writeByte(definition);
+			this.records.writeUTF(name);
+		}
+		return index;
+	}
+
+	private void writeVarint (long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.records.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.records.writeByte((int) value);
+	}
+
+	private void writeZigzag (long value) throws IOException {
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	private void flush () {
+		if (this.buffer.size() == 0) {
+			return;
+		}
+		byte[] chunk = this.buffer.toByteArray();
+		this.buffer.reset();
+		this.writer.execute(() -> append(chunk));
+	}
+
+	private void append (byte[] chunk) {
+		CRC32 checksum = new CRC32();
+		checksum.update(chunk, 0, chunk.length);
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(FRAME_HEADER_BYTES + chunk.length);
+		try (DataOutputStream output = new DataOutputStream(frame)) {
+			output.writeInt(MAGIC);
+			output.writeByte(FORMAT_VERSION);
+			output.writeInt(chunk.length);
+			output.writeInt((int) checksum.getValue());
+			output.write(chunk);
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+		try {
+			if (this.stream == null) {
+				File directory = this.file.getParentFile();
+				if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+					throw new IOException("could not create " + directory);
+				}
+				this.stream = new FileOutputStream(this.file, true);
+			}
+			frame.writeTo(this.stream);
+		} catch (IOException exception) {
+			this.logger.log(Level.WARNING, "Could not record spawns: {0}", exception.getMessage());
+		}
+	}
+
+	private void closeStream () {
+		if (this.stream == null) {
+			return;
+		}
+		try {
+			this.stream.close();
+		} catch (IOException exception) {
+			this.logger.log(Level.WARNING, "Could not close spawn recording: {0}", exception.getMessage());
+		}
+		this.stream = null;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.Location;
+
+/**
+ * Supplies additional variables describing the surroundings of a spawning entity.
+ */
+public interface SpawnVariableProvider {
+
+	/**
+	 * Returns the names of all variables this provider puts into the variables map.
+	 *
+	 * @return names of the provided variables
+	 */
+	Set<String> getProvidedVariables ();
+
+	/**
+	 * Puts the provided variables for the given location into the variables map.
+	 *
+	 * @param location  location of the spawning entity
+	 * @param variables variables map to fill
+	 */
+	void provideVariables (Location location, Map<String, Double> variables);
+
+	/**
+	 * Puts neutral values for the provided variables into the variables map, without reading any world state. Used
+	 * where the surroundings can not be read, like off the main thread or in unloaded chunks.
+	 *
+	 * @param variables variables map to fill
+	 */
+	void provideDefaultVariables (Map<String, Double> variables);
+}
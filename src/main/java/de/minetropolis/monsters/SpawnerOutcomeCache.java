@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.block.Block;
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.entity.SpawnerSpawnEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Remembers the variables and level calculated for the first entity of a spawner, so later entities of the same spawner
+ * skip the variable providers and the world calculation. Only the rolls of the variations are done for every entity.
+ * <p>
+ * A spawner announces each entity with a {@link SpawnerSpawnEvent} right before its creature spawn event, the position
+ * of the spawner is taken from there. Outcomes expire after the configured time and are dropped when their spawner is
+ * broken or blown up.
+ */
+public final class SpawnerOutcomeCache implements Listener {
+
+	private static final long NANOS_PER_TICK = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final Map<String, Map<Long, Outcome>> worlds = new HashMap<>();
+	private long maximumAge = 600 * NANOS_PER_TICK;
+
+	private boolean pending = false;
+	private int pendingEntityId;
+	private String pendingWorld;
+	private long pendingPosition;
+
+	public SpawnerOutcomeCache () {
+	}
+
+	/**
+	 * Sets how long an outcome is reused.
+	 *
+	 * @param ticks time to live in ticks, 0 disables the cache
+	 */
+	public void setTimeToLive (int ticks) {
+		if (ticks < 0) {
+			throw new IllegalArgumentException("time to live must not be negative");
+		}
+		this.maximumAge = ticks * NANOS_PER_TICK;
+		clear();
+	}
+
+	/**
+	 * Forgets all outcomes, they were calculated with another configuration.
+	 */
+	public void clear () {
+		this.worlds.clear();
+		this.pending = false;
+	}
+
+	/**
+	 * Returns the outcome of the spawner that spawned the given entity.
+	 *
+	 * @param entity entity that is spawning
+	 * @return outcome or null if the entity does not come from a spawner with a valid outcome
+	 */
+	public Outcome get (Entity entity) {
+		if (!isPending(entity)) {
+			return null;
+		}
+		Map<Long, Outcome> outcomes = this.worlds.get(this.pendingWorld);
+		if (outcomes == null) {
+			return null;
+		}
+		Outcome outcome = outcomes.get(this.pendingPosition);
+		if (outcome == null || System.nanoTime() - outcome.created > this.maximumAge) {
+			return null;
+		}
+		this.pending = false;
+		return outcome;
+	}
+
+	/**
+	 * Remembers the outcome for the spawner that spawned the given entity.
+	 *
+	 * @param entity    entity that is spawning
+	 * @param variables variables calculated for the entity, must not be changed afterwards
+	 * @param level     level of the entity
+	 */
+	public void put (Entity entity, Map<String, Double> variables, int level) {
+		if (this.maximumAge == 0 || !isPending(entity)) {
+			return;
+		}
+		this.pending = false;
+		Map<Long, Outcome> outcomes = this.worlds.computeIfAbsent(this.pendingWorld, world -> new LinkedHashMap<>());
+		long now = System.nanoTime();
+		Iterator<Outcome> oldest = outcomes.values().iterator();
+		while (oldest.hasNext() && now - oldest.next().created > this.maximumAge) {
+			oldest.remove();
+		}
+		outcomes.remove(this.pendingPosition);
+		outcomes.put(this.pendingPosition, new Outcome(Collections.unmodifiableMap(variables), level, now));
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onSpawnerSpawn (final SpawnerSpawnEvent event) {
+		if (this.maximumAge == 0) {
+			return;
+		}
+		CreatureSpawner spawner = event.getSpawner();
+		this.pending = true;
+		this.pendingEntityId = event.getEntity().getEntityId();
+		this.pendingWorld = spawner.getWorld().getName();
+		this.pendingPosition = positionKey(spawner.getX(), spawner.getY(), spawner.getZ());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak (final BlockBreakEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockExplode (final BlockExplodeEvent event) {
+		for (Block block : event.blockList()) {
+			invalidate(block);
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode (final EntityExplodeEvent event) {
+		for (Block block : event.blockList()) {
+			invalidate(block);
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload (final WorldUnloadEvent event) {
+		this.worlds.remove(event.getWorld().getName());
+	}
+
+	private boolean isPending (Entity entity) {
+		return this.pending && this.pendingEntityId == entity.getEntityId();
+	}
+
+	private void invalidate (Block block) {
+		Map<Long, Outcome> outcomes = this.worlds.get(block.getWorld().getName());
+		if (outcomes != null) {
+			outcomes.remove(positionKey(block.getX(), block.getY(), block.getZ()));
+		}
+	}
+
+	private static long positionKey (int x, int y, int z) {
+		return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+	}
+
+	/**
+	 * Variables and level calculated for a spawner.
+	 */
+	public static final class Outcome {
+
+		private final Map<String, Double> variables;
+		private final int level;
+		private final long created;
+
+		private Outcome (Map<String, Double> variables, int level, long created) {
+			this.variables = variables;
+			this.level = level;
+			this.created = created;
+		}
+
+		public Map<String, Double> getVariables () {
+			return this.variables;
+		}
+
+		public int getLevel () {
+			return this.level;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.CalculationNode;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import net.objecthunter.exp4j.Expression;
+import org.bukkit.Material;
+
+/**
+ * Level dependent multipliers for the drops of the vanilla loot table.
+ */
+public class VanillaLootVariation {
+
+	private CalculationNode multiplierCalculation;
+	private final Map<Material, CalculationNode> materialMultipliers = new EnumMap<>(Material.class);
+
+	public VanillaLootVariation (Expression multiplier) {
+		this.multiplierCalculation = new CalculationNode("multiplier", Objects.requireNonNull(multiplier));
+	}
+
+	public void setMultiplier (Expression multiplier) {
+		this.multiplierCalculation = new CalculationNode("multiplier", Objects.requireNonNull(multiplier));
+	}
+
+	public void addMaterialMultiplier (Material material, Expression multiplier) {
+		this.materialMultipliers.put(material, new CalculationNode(material.toString() + "_MULTIPLIER", Objects.requireNonNull(multiplier)));
+	}
+
+	public double calculateMultiplier (Map<String, Double> variables) {
+		return Math.max(0, this.multiplierCalculation.calculateVariable(variables));
+	}
+
+	public Map<Material, Double> calculateMaterialMultipliers (Map<String, Double> variables) {
+		if (this.materialMultipliers.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<Material, Double> multipliers = new EnumMap<>(Material.class);
+		for (Map.Entry<Material, CalculationNode> multiplier : this.materialMultipliers.entrySet()) {
+			multipliers.put(multiplier.getKey(), Math.max(0, multiplier.getValue().calculateVariable(variables)));
+		}
+		return multipliers;
+	}
+
+	/**
+	 * Puts all calculations of this vanilla loot into the map, keyed by their path in the config.
+	 *
+	 * @param path         path of this vanilla loot
+	 * @param calculations map to fill
+	 */
+	void collectCalculations (String path, Map<String, CalculationNode> calculations) {
+		calculations.put(path + ".multiplier", this.multiplierCalculation);
+		for (Map.Entry<Material, CalculationNode> material : this.materialMultipliers.entrySet()) {
+			calculations.put(path + ".materials." + material.getKey(), material.getValue());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Caches time, weather and difficulty of every world.
+ * <p>
+ * These values change at most once per tick, so they are read from the worlds once per tick by {@link #refresh} and
+ * copied into the variables of every spawn from there.
+ */
+public final class WorldContextCache implements SpawnVariableProvider {
+
+	public static final String TIME = "time";
+	public static final String DAY = "day";
+	public static final String MOON_PHASE = "moonPhase";
+	public static final String IS_THUNDERING = "isThundering";
+	public static final String DIFFICULTY = "difficulty";
+
+	public static final Set<String> PROVIDED_VARIABLES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			TIME, DAY, MOON_PHASE, IS_THUNDERING, DIFFICULTY)));
+
+	private static final long TICKS_PER_DAY = 24000L;
+	private static final long MOON_PHASES = 8L;
+
+	private final Map<String, WorldContext> worlds = new HashMap<>();
+	private long refreshCount = 0;
+
+	public WorldContextCache () {
+	}
+
+	/**
+	 * Reads the context of all given worlds, supposed to be called once per tick.
+	 *
+	 * @param loadedWorlds all currently loaded worlds
+	 */
+	public void refresh (Collection<World> loadedWorlds) {
+		this.refreshCount++;
+		for (World world : loadedWorlds) {
+			WorldContext context = this.worlds.computeIfAbsent(world.getName(), name -> new WorldContext());
+			context.refresh(world, this.refreshCount);
+		}
+		this.worlds.values().removeIf(context -> context.refreshCount != this.refreshCount);
+	}
+
+	@Override
+	public Set<String> getProvidedVariables () {
+		return PROVIDED_VARIABLES;
+	}
+
+	@Override
+	public void provideVariables (Location location, Map<String, Double> variables) {
+		World world = location.getWorld();
+		WorldContext context = this.worlds.get(world.getName());
+		if (context == null) {
+			context = new WorldContext();
+			context.refresh(world, this.refreshCount);
+			this.worlds.put(world.getName(), context);
+		}
+		variables.put(TIME, context.time);
+		variables.put(DAY, context.day);
+		variables.put(MOON_PHASE, context.moonPhase);
+		variables.put(IS_THUNDERING, context.thundering);
+		variables.put(DIFFICULTY, context.difficulty);
+	}
+
+	@Override
+	public void provideDefaultVariables (Map<String, Double> variables) {
+		variables.put(TIME, 0d);
+		variables.put(DAY, 0d);
+		variables.put(MOON_PHASE, 0d);
+		variables.put(IS_THUNDERING, 0d);
+		variables.put(DIFFICULTY, 0d);
+	}
+
+	private static final class WorldContext {
+
+		private double time;
+		private double day;
+		private double moonPhase;
+		private double thundering;
+		private double difficulty;
+		private long refreshCount;
+
+		private WorldContext () {
+		}
+
+		private void refresh (World world, long refreshCount) {
+			long fullTime = world.getFullTime();
+			long days = fullTime / TICKS_PER_DAY;
+			this.time = world.getTime();
+			this.day = days;
+			this.moonPhase = days % MOON_PHASES;
+			this.thundering = world.isThundering() ? 1d : 0d;
+			this.difficulty = world.getDifficulty().getValue();
+			this.refreshCount = refreshCount;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import de.minetropolis.monsters.math.Calculation;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * {@link LevelService} on top of the world calculations of the current configuration.
+ */
+public final class WorldLevelService implements LevelService {
+
+	private final MonsterSpawnEventListener spawnListener;
+	private volatile Map<String, Calculation> worlds = Collections.emptyMap();
+
+	public WorldLevelService (MonsterSpawnEventListener spawnListener) {
+		this.spawnListener = spawnListener;
+	}
+
+	public void setWorldsConfiguration (Map<String, Calculation> worldsConfiguration) {
+		this.worlds = Collections.unmodifiableMap(new HashMap<>(worldsConfiguration));
+	}
+
+	@Override
+	public boolean hasLevels (World world) {
+		return this.worlds.containsKey(world.getName());
+	}
+
+	@Override
+	public int levelAt (World world, double x, double y, double z) {
+		int[] level = new int[1];
+		levelsAt(world, new double[]{x}, new double[]{y}, new double[]{z}, level);
+		return level[0];
+	}
+
+	@Override
+	public void levelsAt (World world, double[] xs, double[] ys, double[] zs, int[] out) {
+		Calculation calculation = this.worlds.get(world.getName());
+		if (calculation == null) {
+			throw new IllegalArgumentException("no levels configured for world " + world.getName());
+		}
+		if (ys.length != xs.length || zs.length != xs.length || out.length != xs.length) {
+			throw new IllegalArgumentException("coordinate arrays differ in length");
+		}
+		boolean primaryThread = Bukkit.isPrimaryThread();
+		Location location = new Location(world, 0, 0, 0);
+		Map<String, Double> variables = new HashMap<>();
+		for (int index = 0; index < xs.length; index++) {
+			variables.clear();
+			if (primaryThread && world.isChunkLoaded((int) Math.floor(xs[index]) >> 4, (int) Math.floor(zs[index]) >> 4)) {
+				location.setX(xs[index]);
+				location.setY(ys[index]);
+				location.setZ(zs[index]);
+				this.spawnListener.fillVariables(location, variables);
+			} else {
+				this.spawnListener.fillDefaultVariables(xs[index], ys[index], zs[index], variables);
+			}
+			calculation.executeCalculation(variables);
+			out[index] = Math.toIntExact(Math.round(variables.get("level")));
+		}
+	}
+}
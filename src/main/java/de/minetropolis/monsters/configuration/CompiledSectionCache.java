@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Remembers the objects compiled from configuration sections together with the fingerprint of their section, so a
+ * reload only has to compile sections that changed. Sections of one parse may be compiled concurrently.
+ *
+ * @param <T> type of the compiled objects
+ */
+final class CompiledSectionCache<T> {
+
+	private final String description;
+	private final CompiledSectionCache<?>[] children;
+	private Map<String, CompiledSection<T>> previous = new HashMap<>();
+	private Map<String, CompiledSection<T>> current = new ConcurrentHashMap<>();
+	private final AtomicInteger reused = new AtomicInteger();
+	private final AtomicInteger rebuilt = new AtomicInteger();
+	private volatile String dependencies = "";
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param description plural name of the cached sections used in reports
+	 * @param children    caches of sections nested inside the sections of this cache
+	 */
+	CompiledSectionCache (String description, CompiledSectionCache<?>... children) {
+		this.description = description;
+		this.children = children;
+	}
+
+	/**
+	 * Sets the fingerprint of the sections the compiled objects may reference from elsewhere in the config. Objects
+	 * compiled while the dependencies had another fingerprint are not reused.
+	 *
+	 * @param dependencies fingerprint of the referenced sections
+	 */
+	void setDependencies (String dependencies) {
+		this.dependencies = dependencies;
+	}
+
+	/**
+	 * Returns the object compiled from an equal section during the last successful parse or compiles the section.
+	 *
+	 * @param section section to compile
+	 * @param loader  compiles the section if necessary
+	 * @return compiled object
+	 * @throws InvalidConfigurationException when the section is invalid
+	 */
+	T reuseOrLoad (ConfigurationSection section, SectionLoader<T> loader) throws InvalidConfigurationException {
+		String path = section.getCurrentPath();
+		String fingerprint = ConfigurationFingerprint.of(section) + this.dependencies;
+		CompiledSection<T> compiled = this.previous.get(path);
+		if (compiled != null && compiled.fingerprint.equals(fingerprint)) {
+			this.reused.incrementAndGet();
+			for (CompiledSectionCache<?> child : this.children) {
+				child.retainNested(path);
+			}
+		} else {
+			compiled = new CompiledSection<>(fingerprint, loader.load(section));
+			this.rebuilt.incrementAndGet();
+		}
+		this.current.put(path, compiled);
+		return compiled.value;
+	}
+
+	/**
+	 * Keeps all objects nested inside a reused section, as their sections are not visited during this parse.
+	 *
+	 * @param parentPath path of the reused section
+	 */
+	private void retainNested (String parentPath) {
+		String prefix = parentPath + ".";
+		this.previous.forEach((path, compiled) -> {
+			if (path.startsWith(prefix)) {
+				this.current.put(path, compiled);
+			}
+		});
+		for (CompiledSectionCache<?> child : this.children) {
+			child.retainNested(parentPath);
+		}
+	}
+
+	/**
+	 * Starts a new parse.
+	 */
+	void begin () {
+		this.current = new ConcurrentHashMap<>();
+		this.reused.set(0);
+		this.rebuilt.set(0);
+	}
+
+	/**
+	 * Keeps the objects of the finished parse for the next one, objects of removed sections get dropped.
+	 */
+	void commit () {
+		this.previous = new HashMap<>(this.current);
+		this.current = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Discards the objects of a failed parse and keeps the ones of the last successful parse.
+	 */
+	void rollback () {
+		this.current = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public String toString () {
+		return this.description + " " + this.reused + " reused / " + this.rebuilt + " rebuilt";
+	}
+
+	/**
+	 * Compiles a configuration section.
+	 *
+	 * @param <T> type of the compiled object
+	 */
+	@FunctionalInterface
+	interface SectionLoader<T> {
+
+		T load (ConfigurationSection section) throws InvalidConfigurationException;
+	}
+
+	private static final class CompiledSection<T> {
+
+		private final String fingerprint;
+		private final T value;
+
+		private CompiledSection (String fingerprint, T value) {
+			this.fingerprint = fingerprint;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters.configuration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Creates content hashes of configuration sections.
+ */
+final class ConfigurationFingerprint {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private ConfigurationFingerprint () {
+		throw new UnsupportedOperationException("utility class");
+	}
+
+	/**
+	 * Hashes all values of the given section and its subsections. Two sections have the same fingerprint if they
+	 * contain the same keys with equal values of the same type, regardless of their order.
+	 *
+	 * @param section section to hash
+	 * @return hex encoded SHA-256 hash
+	 */
+	static String of (ConfigurationSection section) {
+		MessageDigest digest = createDigest();
+		for (Map.Entry<String, Object> entry : new TreeMap<>(section.getValues(true)).entrySet()) {
+			Object value = entry.getValue();
+			StringBuilder line = new StringBuilder(entry.getKey());
+			if (value instanceof ConfigurationSection) {
+				line.append("{}");
+			} else {
+				line.append('=').append(value == null ? "null" : value.getClass().getName()).append(':').append(value);
+			}
+			digest.update(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest () {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException("SHA-256 is not supported", exception);
+		}
+	}
+
+	private static String toHex (byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int index = 0; index < bytes.length; index++) {
+			hex[index * 2] = HEX_DIGITS[(bytes[index] >> 4) & 0xF];
+			hex[index * 2 + 1] = HEX_DIGITS[bytes[index] & 0xF];
+		}
+		return new String(hex);
+	}
+}
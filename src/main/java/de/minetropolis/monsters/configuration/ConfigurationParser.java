@@ -16,56 +16,160 @@
  */
 package de.minetropolis.monsters.configuration;
 
+import de.minetropolis.monsters.AbilityScheduler;
+import de.minetropolis.monsters.AbilityVariation;
+import de.minetropolis.monsters.ChunkContextCache;
+import de.minetropolis.monsters.ConfigurationAnalyzer;
 import de.minetropolis.monsters.DropVariation;
+import de.minetropolis.monsters.EffectVariation;
 import de.minetropolis.monsters.EntityVariation;
-import de.minetropolis.monsters.math.AdditionalMathOperations;
+import de.minetropolis.monsters.EquipmentSlot;
+import de.minetropolis.monsters.EquipmentVariation;
+import de.minetropolis.monsters.LootPool;
+import de.minetropolis.monsters.LootTable;
+import de.minetropolis.monsters.MobState;
+import de.minetropolis.monsters.PlayerProximityIndex;
+import de.minetropolis.monsters.VanillaLootVariation;
+import de.minetropolis.monsters.WorldContextCache;
 import de.minetropolis.monsters.math.Calculation;
+import de.minetropolis.monsters.math.CalculationGraph;
 import de.minetropolis.monsters.math.CalculationNode;
+import de.minetropolis.monsters.math.ExpressionCache;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import net.objecthunter.exp4j.Expression;
-import net.objecthunter.exp4j.ExpressionBuilder;
 import org.bukkit.Material;
 import org.bukkit.attribute.Attribute;
 
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.EntityType;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.potion.PotionEffectType;
 
 /**
  * Parses the config.
  */
 public final class ConfigurationParser {
 
+	/**
+	 * Variables that are set for every spawn before the world calculation runs.
+	 */
+	public static final Set<String> SPAWN_VARIABLES;
+
+	/**
+	 * Variables usable in all variation and drop expressions.
+	 */
+	public static final Set<String> VARIATION_VARIABLES;
+
+	/**
+	 * Variables of expressions that are evaluated once per level, like equipment tiers and enchantments.
+	 */
+	public static final Set<String> LEVEL_VARIABLES = Collections.singleton("level");
+
+	static {
+		Set<String> spawnVariables = new HashSet<>(Arrays.asList("x", "y", "z"));
+		spawnVariables.addAll(PlayerProximityIndex.PROVIDED_VARIABLES);
+		spawnVariables.addAll(WorldContextCache.PROVIDED_VARIABLES);
+		spawnVariables.addAll(ChunkContextCache.PROVIDED_VARIABLES);
+		SPAWN_VARIABLES = Collections.unmodifiableSet(spawnVariables);
+		Set<String> variationVariables = new HashSet<>(spawnVariables);
+		variationVariables.add("level");
+		VARIATION_VARIABLES = Collections.unmodifiableSet(variationVariables);
+	}
+
+	private static final Pattern RANDOM_FUNCTION = Pattern.compile("\\brandom");
+
 	private final Lock lock = new ReentrantLock();
 	private final AtomicBoolean parsed = new AtomicBoolean(false);
 
 	private final Plugin plugin;
+	private final Logger logger;
+	private final AbilityScheduler abilityScheduler;
 	private Configuration config;
 
 	private Map<String, Calculation> worldsConfiguration;
 	private Map<EntityType, Set<EntityVariation>> entitiesConfiguration;
+	private int playerProximityRadius;
+	private int chunkCacheRefreshInterval;
+	private int chunkCacheMaximumChunks;
+	private int dropMaximumStacks;
+	private double dropOverflowExperience;
+	private double dropPrecomputeHealth;
+	private Set<SpawnReason> defaultSpawnReasons;
+	private Map<String, Set<SpawnReason>> worldSpawnReasons;
+	private int spawnerCacheTimeToLive;
+	private boolean relevelEnabled;
+	private int relevelBudget;
+	private boolean spawnRecordingEnabled;
+	private int journalSize;
+	private int failureMaximum;
+	private int failureWindow;
+	private int failureCooldown;
+	private int levelMapHeight;
+	private int levelMapZoomLevels;
+	private int levelMapThreads;
+	private int levelMapMaximumLevel;
+
+	private final ExpressionCache expressionCache = new ExpressionCache();
+	private final CompiledSectionCache<DropVariation> dropCache = new CompiledSectionCache<>("drops");
+	private final CompiledSectionCache<EntityVariation> variationCache = new CompiledSectionCache<>("variations", dropCache);
+	private final CompiledSectionCache<Set<EntityVariation>> entityCache = new CompiledSectionCache<>("entity types", variationCache);
+	private final CompiledSectionCache<Calculation> worldCache = new CompiledSectionCache<>("worlds");
+	private Map<String, LootTable> lootTables = Collections.emptyMap();
+	private String lootTablesFingerprint = "";
+	private String reloadSummary = "";
+	private List<String> worldFallbacks = Collections.emptyList();
 
 	/**
 	 * Create a parser for the given plugin.
 	 *
-	 * @param plugin plugin to parse config for
+	 * @param plugin           plugin to parse config for
+	 * @param abilityScheduler scheduler running the abilities of parsed variations
 	 */
-	public ConfigurationParser (Plugin plugin) {
+	public ConfigurationParser (Plugin plugin, AbilityScheduler abilityScheduler) {
 		this.plugin = plugin;
+		this.logger = plugin.getLogger();
+		this.abilityScheduler = abilityScheduler;
+	}
+
+	/**
+	 * Create a parser that runs without server, e.g. for simulations. It only parses configurations passed to
+	 * {@link #parseConfiguration(Configuration)} and leaves out equipment, effects and abilities.
+	 *
+	 * @param logger           logger to report problems to
+	 * @param abilityScheduler scheduler running the abilities of parsed variations
+	 */
+	public ConfigurationParser (Logger logger, AbilityScheduler abilityScheduler) {
+		this.plugin = null;
+		this.logger = logger;
+		this.abilityScheduler = abilityScheduler;
 	}
 
 	/**
@@ -88,27 +192,208 @@ public final class ConfigurationParser {
 	}
 
 	public Map<String, Calculation> getWorldsConfiguration () {
-		if (lock.tryLock()) {
-			Map<String, Calculation> configuration = null;
-			try {
-				if (this.parsed.get()) {
-					configuration = Collections.unmodifiableMap(this.worldsConfiguration);
-				}
-			} finally {
-				lock.unlock();
-			}
-			return configuration;
-		} else {
-			return null;
-		}
+		return getIfParsed(() -> Collections.unmodifiableMap(this.worldsConfiguration));
 	}
 
 	public Map<EntityType, Set<EntityVariation>> getEntitiesConfiguration () {
+		return getIfParsed(() -> Collections.unmodifiableMap(this.entitiesConfiguration));
+	}
+
+	/**
+	 * Returns the radius in blocks in which players count as nearby.
+	 *
+	 * @return radius in blocks or null if the config is not parsed
+	 */
+	public Integer getPlayerProximityRadius () {
+		return getIfParsed(() -> this.playerProximityRadius);
+	}
+
+	/**
+	 * Returns after how many ticks a cached chunk gets copied again.
+	 *
+	 * @return refresh interval in ticks or null if the config is not parsed
+	 */
+	public Integer getChunkCacheRefreshInterval () {
+		return getIfParsed(() -> this.chunkCacheRefreshInterval);
+	}
+
+	/**
+	 * Returns how many chunks per world are cached at most.
+	 *
+	 * @return maximum amount of cached chunks or null if the config is not parsed
+	 */
+	public Integer getChunkCacheMaximumChunks () {
+		return getIfParsed(() -> this.chunkCacheMaximumChunks);
+	}
+
+	/**
+	 * Returns how many stacks one entity drops at most.
+	 *
+	 * @return maximum amount of dropped stacks, negative for no limit, or null if the config is not parsed
+	 */
+	public Integer getDropMaximumStacks () {
+		return getIfParsed(() -> this.dropMaximumStacks);
+	}
+
+	/**
+	 * Returns the experience granted for each item above the stack limit.
+	 *
+	 * @return experience per item or null if the config is not parsed
+	 */
+	public Double getDropOverflowExperience () {
+		return getIfParsed(() -> this.dropOverflowExperience);
+	}
+
+	/**
+	 * Returns the share of the max health below which the drops of a damaged entity are rolled on a worker thread.
+	 *
+	 * @return share of the max health, 0 if drops are rolled at spawn, or null if the config is not parsed
+	 */
+	public Double getDropPrecomputeHealth () {
+		return getIfParsed(() -> this.dropPrecomputeHealth);
+	}
+
+	/**
+	 * Returns the spawn reasons handled in worlds without own spawn reasons.
+	 *
+	 * @return handled spawn reasons or null if the config is not parsed
+	 */
+	public Set<SpawnReason> getDefaultSpawnReasons () {
+		return getIfParsed(() -> this.defaultSpawnReasons);
+	}
+
+	/**
+	 * Returns the spawn reasons of worlds that do not use the default spawn reasons.
+	 *
+	 * @return handled spawn reasons per world or null if the config is not parsed
+	 */
+	public Map<String, Set<SpawnReason>> getWorldSpawnReasons () {
+		return getIfParsed(() -> this.worldSpawnReasons);
+	}
+
+	/**
+	 * Returns how long the variables and level of a spawner are reused.
+	 *
+	 * @return time to live in ticks, 0 if disabled, or null if the config is not parsed
+	 */
+	public Integer getSpawnerCacheTimeToLive () {
+		return getIfParsed(() -> this.spawnerCacheTimeToLive);
+	}
+
+	/**
+	 * Returns whether entities changed with an older configuration get re-leveled.
+	 *
+	 * @return whether re-leveling is enabled or null if the config is not parsed
+	 */
+	public Boolean isRelevelEnabled () {
+		return getIfParsed(() -> this.relevelEnabled);
+	}
+
+	/**
+	 * Returns how many chunks and entities are re-leveled per tick.
+	 *
+	 * @return budget per tick or null if the config is not parsed
+	 */
+	public Integer getRelevelBudget () {
+		return getIfParsed(() -> this.relevelBudget);
+	}
+
+	/**
+	 * Returns whether the inputs of spawns get recorded for simulations.
+	 *
+	 * @return whether spawns get recorded or null if the config is not parsed
+	 */
+	public Boolean isSpawnRecordingEnabled () {
+		return getIfParsed(() -> this.spawnRecordingEnabled);
+	}
+
+	/**
+	 * Returns how many spawn decisions the journal keeps.
+	 *
+	 * @return number of spawns kept, 0 if the journal is disabled, or null if the config is not parsed
+	 */
+	public Integer getJournalSize () {
+		return getIfParsed(() -> this.journalSize);
+	}
+
+	/**
+	 * Returns how many failures within the window disable a variation, drop or world calculation.
+	 *
+	 * @return maximum failures or null if the config is not parsed
+	 */
+	public Integer getFailureMaximum () {
+		return getIfParsed(() -> this.failureMaximum);
+	}
+
+	/**
+	 * Returns the length of the window failures are counted in.
+	 *
+	 * @return window in ticks or null if the config is not parsed
+	 */
+	public Integer getFailureWindow () {
+		return getIfParsed(() -> this.failureWindow);
+	}
+
+	/**
+	 * Returns how long a failing variation, drop or world calculation stays disabled.
+	 *
+	 * @return cooldown in ticks, 0 until the next reload, or null if the config is not parsed
+	 */
+	public Integer getFailureCooldown () {
+		return getIfParsed(() -> this.failureCooldown);
+	}
+
+	/**
+	 * Returns the y coordinate level maps are calculated at.
+	 *
+	 * @return y coordinate or null if the config is not parsed
+	 */
+	public Integer getLevelMapHeight () {
+		return getIfParsed(() -> this.levelMapHeight);
+	}
+
+	/**
+	 * Returns how many zoom levels of level maps are rendered.
+	 *
+	 * @return amount of zoom levels or null if the config is not parsed
+	 */
+	public Integer getLevelMapZoomLevels () {
+		return getIfParsed(() -> this.levelMapZoomLevels);
+	}
+
+	/**
+	 * Returns how many level map tiles are rendered at once.
+	 *
+	 * @return amount of render threads, 0 for one per processor, or null if the config is not parsed
+	 */
+	public Integer getLevelMapThreads () {
+		return getIfParsed(() -> this.levelMapThreads);
+	}
+
+	/**
+	 * Returns the level shown in the strongest color on level maps.
+	 *
+	 * @return maximum level or null if the config is not parsed
+	 */
+	public Integer getLevelMapMaximumLevel () {
+		return getIfParsed(() -> this.levelMapMaximumLevel);
+	}
+
+	/**
+	 * Describes how many sections the last parse reused from the parse before and how many it compiled again.
+	 *
+	 * @return summary of the last parse or null if the config is not parsed
+	 */
+	public String getReloadSummary () {
+		return getIfParsed(() -> this.reloadSummary);
+	}
+
+	private <T> T getIfParsed (Supplier<T> supplier) {
 		if (lock.tryLock()) {
-			Map<EntityType, Set<EntityVariation>> configuration = null;
+			T configuration = null;
 			try {
 				if (this.parsed.get()) {
-					configuration = Collections.unmodifiableMap(this.entitiesConfiguration);
+					configuration = supplier.get();
 				}
 			} finally {
 				lock.unlock();
@@ -123,16 +408,43 @@ public final class ConfigurationParser {
 	 * Loads and parses the current configuration.
 	 */
 	public void parseCurrentConfig () {
+		if (this.plugin == null) {
+			throw new IllegalStateException("no plugin to load the config of");
+		}
+		parse(null);
+	}
+
+	/**
+	 * Parses the given configuration instead of the plugin's config file.
+	 *
+	 * @param configuration configuration to parse
+	 */
+	public void parseConfiguration (Configuration configuration) {
+		parse(Objects.requireNonNull(configuration));
+	}
+
+	private void parse (Configuration configuration) {
 		if (lock.tryLock()) {
 			try {
 				this.parsed.set(false);
 				//cleanUpOldParse();
-				loadConfiguration();
+				beginCompiledSectionCaches();
+				if (configuration == null) {
+					loadConfiguration();
+				} else {
+					this.config = configuration;
+				}
 				parseConfig();
+				commitCompiledSectionCaches();
+				this.logger.log(Level.INFO, "Parsed configuration: {0}", this.reloadSummary);
 				this.parsed.set(true);
 			} catch (InvalidConfigurationException exception) {
-				this.plugin.getLogger().log(Level.SEVERE, "Invalid configuration: {0}", exception.getMessage());
-				this.plugin.getLogger().log(Level.FINE, null, exception);
+				rollbackCompiledSectionCaches();
+				this.logger.log(Level.SEVERE, "Invalid configuration: {0}", exception.getMessage());
+				for (Throwable suppressed : exception.getSuppressed()) {
+					this.logger.log(Level.SEVERE, "Invalid configuration: {0}", suppressed.getMessage());
+				}
+				this.logger.log(Level.FINE, null, exception);
 			} finally {
 				lock.unlock();
 			}
@@ -146,6 +458,30 @@ public final class ConfigurationParser {
 		this.entitiesConfiguration = null;
 	}
 
+	private void beginCompiledSectionCaches () {
+		this.worldCache.begin();
+		this.entityCache.begin();
+		this.variationCache.begin();
+		this.dropCache.begin();
+	}
+
+	private void commitCompiledSectionCaches () {
+		this.worldCache.commit();
+		this.entityCache.commit();
+		this.variationCache.commit();
+		this.dropCache.commit();
+		this.reloadSummary = this.worldCache + ", " + this.entityCache + ", " + this.variationCache + ", " + this.dropCache
+							 + ", " + this.expressionCache.size() + " distinct expressions"
+							 + (this.worldFallbacks.isEmpty() ? "" : ", previous calculation kept for " + this.worldFallbacks);
+	}
+
+	private void rollbackCompiledSectionCaches () {
+		this.worldCache.rollback();
+		this.entityCache.rollback();
+		this.variationCache.rollback();
+		this.dropCache.rollback();
+	}
+
 	private void loadConfiguration () {
 		this.plugin.saveDefaultConfig();
 		this.plugin.reloadConfig();
@@ -157,56 +493,364 @@ public final class ConfigurationParser {
 				.orElseThrow(() -> new MissingEntryException("no active worlds"));
 		ConfigurationSection entitiesSection = ConfigurationUtil.loadOptionalConfigurationSection(config, "entities")
 				.orElseThrow(() -> new MissingEntryException("no active entities"));
-		this.worldsConfiguration = loadWorlds(worldsSection);
-		this.entitiesConfiguration = loadEntities(entitiesSection);
+		loadLootTables(ConfigurationUtil.loadOptionalConfigurationSection(config, "loot-tables"));
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			Map<String, Future<Calculation>> worlds = submitWorlds(worldsSection, pool);
+			Map<EntityType, Future<Set<EntityVariation>>> entities = submitEntities(entitiesSection, pool);
+			this.worldsConfiguration = joinWorlds(worlds, worldsSection);
+			this.entitiesConfiguration = joinSections(entities, entitiesSection);
+		} finally {
+			shutdownAndAwait(pool);
+		}
+		this.playerProximityRadius = ConfigurationUtil.loadInteger(config, "player-proximity.radius", 64);
+		if (this.playerProximityRadius < 0) {
+			throw new IllegalEntryTypeException("player-proximity.radius must not be negative");
+		}
+		this.chunkCacheRefreshInterval = ConfigurationUtil.loadInteger(config, "chunk-cache.refresh-interval", 200);
+		if (this.chunkCacheRefreshInterval < 1) {
+			throw new IllegalEntryTypeException("chunk-cache.refresh-interval must be positive");
+		}
+		this.chunkCacheMaximumChunks = ConfigurationUtil.loadInteger(config, "chunk-cache.max-chunks", 256);
+		if (this.chunkCacheMaximumChunks < 1) {
+			throw new IllegalEntryTypeException("chunk-cache.max-chunks must be positive");
+		}
+		this.dropMaximumStacks = ConfigurationUtil.loadInteger(config, "drops.max-stacks", -1);
+		this.dropOverflowExperience = ConfigurationUtil.loadDouble(config, "drops.overflow-experience", 0);
+		if (this.dropOverflowExperience < 0) {
+			throw new IllegalEntryTypeException("drops.overflow-experience must not be negative");
+		}
+		this.dropPrecomputeHealth = ConfigurationUtil.loadDouble(config, "drops.precompute-below-health", 0);
+		if (this.dropPrecomputeHealth < 0 || this.dropPrecomputeHealth > 1) {
+			throw new IllegalEntryTypeException("drops.precompute-below-health must be between 0.0 and 1.0");
+		}
+		for (Set<EntityVariation> variations : this.entitiesConfiguration.values()) {
+			for (EntityVariation variation : variations) {
+				variation.setDeferDeathData(this.dropPrecomputeHealth > 0);
+			}
+		}
+		this.defaultSpawnReasons = config.contains("spawn-reasons.default", true)
+								   ? loadSpawnReasons(config, "spawn-reasons.default")
+								   : Collections.unmodifiableSet(EnumSet.allOf(SpawnReason.class));
+		Map<String, Set<SpawnReason>> worldReasons = new HashMap<>();
+		Optional<ConfigurationSection> worldReasonsSection = ConfigurationUtil.loadOptionalConfigurationSection(config, "spawn-reasons.worlds");
+		if (worldReasonsSection.isPresent()) {
+			for (String worldName : worldReasonsSection.get().getKeys(false)) {
+				worldReasons.put(worldName, loadSpawnReasons(worldReasonsSection.get(), worldName));
+			}
+		}
+		this.worldSpawnReasons = Collections.unmodifiableMap(worldReasons);
+		this.spawnerCacheTimeToLive = ConfigurationUtil.loadInteger(config, "spawner-cache.time-to-live", 600);
+		if (this.spawnerCacheTimeToLive < 0) {
+			throw new IllegalEntryTypeException("spawner-cache.time-to-live must not be negative");
+		}
+		this.relevelEnabled = ConfigurationUtil.loadBoolean(config, "relevel.enabled", false);
+		this.relevelBudget = ConfigurationUtil.loadInteger(config, "relevel.budget-per-tick", 50);
+		if (this.relevelBudget < 1) {
+			throw new IllegalEntryTypeException("relevel.budget-per-tick must be positive");
+		}
+		this.spawnRecordingEnabled = ConfigurationUtil.loadBoolean(config, "spawn-recording.enabled", false);
+		this.journalSize = ConfigurationUtil.loadInteger(config, "journal.size", 1024);
+		if (this.journalSize < 0) {
+			throw new IllegalEntryTypeException("journal.size must not be negative");
+		}
+		this.failureMaximum = ConfigurationUtil.loadInteger(config, "failures.max-failures", 10);
+		if (this.failureMaximum < 1) {
+			throw new IllegalEntryTypeException("failures.max-failures must be positive");
+		}
+		this.failureWindow = ConfigurationUtil.loadInteger(config, "failures.window", 1200);
+		if (this.failureWindow < 1) {
+			throw new IllegalEntryTypeException("failures.window must be positive");
+		}
+		this.failureCooldown = ConfigurationUtil.loadInteger(config, "failures.cooldown", 6000);
+		if (this.failureCooldown < 0) {
+			throw new IllegalEntryTypeException("failures.cooldown must not be negative");
+		}
+		this.levelMapHeight = ConfigurationUtil.loadInteger(config, "level-map.y", 64);
+		this.levelMapZoomLevels = ConfigurationUtil.loadInteger(config, "level-map.zoom-levels", 4);
+		if (this.levelMapZoomLevels < 1 || this.levelMapZoomLevels > 16) {
+			throw new IllegalEntryTypeException("level-map.zoom-levels must be between 1 and 16");
+		}
+		this.levelMapThreads = ConfigurationUtil.loadInteger(config, "level-map.threads", 0);
+		if (this.levelMapThreads < 0) {
+			throw new IllegalEntryTypeException("level-map.threads must not be negative");
+		}
+		this.levelMapMaximumLevel = ConfigurationUtil.loadInteger(config, "level-map.max-level", 100);
+		if (this.levelMapMaximumLevel < 1) {
+			throw new IllegalEntryTypeException("level-map.max-level must be positive");
+		}
+		if (ConfigurationUtil.loadBoolean(config, "analysis.enabled", true)) {
+			analyzeEntities();
+		}
+	}
+
+	private void analyzeEntities () throws InvalidConfigurationException {
+		int maximumLevel = ConfigurationUtil.loadInteger(config, "analysis.max-level", 100);
+		if (maximumLevel < 0) {
+			throw new IllegalEntryTypeException("analysis.max-level must not be negative");
+		}
+		int costBudget = ConfigurationUtil.loadInteger(config, "analysis.spawn-cost-budget", 50);
+		if (costBudget < 1) {
+			throw new IllegalEntryTypeException("analysis.spawn-cost-budget must be positive");
+		}
+		PlayerProximityIndex playerIndex = new PlayerProximityIndex();
+		playerIndex.setRadius(this.playerProximityRadius);
+		Map<String, Double> defaults = new HashMap<>();
+		playerIndex.provideDefaultVariables(defaults);
+		new WorldContextCache().provideDefaultVariables(defaults);
+		new ChunkContextCache().provideDefaultVariables(defaults);
+		ConfigurationAnalyzer analyzer = new ConfigurationAnalyzer(VARIATION_VARIABLES, defaults, maximumLevel, costBudget);
+		analyzer.analyze(this.entitiesConfiguration);
+		for (String warning : analyzer.getWarnings()) {
+			this.logger.log(Level.WARNING, "Configuration analysis: {0}", warning);
+		}
+		this.logger.log(Level.FINE, "Estimated spawn cost in microseconds: {0}", analyzer.getCosts());
+		List<String> errors = analyzer.getErrors();
+		if (!errors.isEmpty()) {
+			InvalidConfigurationException exception = new InvalidConfigurationException(errors.get(0));
+			for (String error : errors.subList(1, errors.size())) {
+				exception.addSuppressed(new InvalidConfigurationException(error));
+			}
+			throw exception;
+		}
 	}
 
-	private Map<String, Calculation> loadWorlds (ConfigurationSection worldsSection) throws InvalidConfigurationException {
+	/**
+	 * Compiles the shared loot tables unless they are unchanged since the last parse. Variations referencing them are
+	 * only reused while the tables stay the same.
+	 */
+	private void loadLootTables (Optional<ConfigurationSection> tablesSection) throws InvalidConfigurationException {
+		String fingerprint = tablesSection.isPresent() ? ConfigurationFingerprint.of(tablesSection.get()) : "";
+		this.variationCache.setDependencies(fingerprint);
+		this.entityCache.setDependencies(fingerprint);
+		if (fingerprint.equals(this.lootTablesFingerprint)) {
+			return;
+		}
+		Map<String, LootTable> tables = new HashMap<>();
+		if (tablesSection.isPresent()) {
+			Map<String, ConfigurationSection> tableSections = ConfigurationUtil.loadConfigurationSectionGroup(tablesSection.get());
+			for (String tableName : tableSections.keySet()) {
+				tables.put(tableName, new LootTable(tableName, createExpressionOf(ConfigurationUtil.loadString(tableSections.get(tableName), "rolls", "1"), VARIATION_VARIABLES)));
+			}
+			for (String tableName : tableSections.keySet()) {
+				loadLootTable(tableSections.get(tableName), tables.get(tableName), tables);
+			}
+			for (LootTable table : tables.values()) {
+				checkLootTableCycles(table, new ArrayList<>());
+			}
+		}
+		this.lootTables = Collections.unmodifiableMap(tables);
+		this.lootTablesFingerprint = fingerprint;
+	}
+
+	private void loadLootTable (ConfigurationSection tableSection, LootTable table, Map<String, LootTable> tables) throws InvalidConfigurationException {
+		Optional<ConfigurationSection> drops = ConfigurationUtil.loadOptionalConfigurationSection(tableSection, "drops");
+		if (drops.isPresent()) {
+			Map<String, ConfigurationSection> dropSections = ConfigurationUtil.loadConfigurationSectionGroup(drops.get());
+			for (String dropIdentifier : dropSections.keySet()) {
+				table.addDrop(loadDrop(dropSections.get(dropIdentifier), dropIdentifier));
+			}
+		}
+		for (Object tableName : ConfigurationUtil.loadList(tableSection, "tables", Collections.emptyList())) {
+			table.addTable(getLootTable(tables, String.valueOf(tableName)));
+		}
+		Optional<ConfigurationSection> pools = ConfigurationUtil.loadOptionalConfigurationSection(tableSection, "pools");
+		if (pools.isPresent()) {
+			Map<String, ConfigurationSection> poolSections = ConfigurationUtil.loadConfigurationSectionGroup(pools.get());
+			for (String poolName : poolSections.keySet()) {
+				table.addPool(loadLootPool(poolSections.get(poolName), poolName, tables));
+			}
+		}
+	}
+
+	private LootPool loadLootPool (ConfigurationSection poolSection, String poolName, Map<String, LootTable> tables) throws InvalidConfigurationException {
+		LootPool pool = new LootPool(poolName, createExpressionOf(ConfigurationUtil.loadString(poolSection, "rolls", "1"), VARIATION_VARIABLES));
+		Map<String, ConfigurationSection> entrySections = ConfigurationUtil.loadConfigurationSectionGroup(ConfigurationUtil.loadConfigurationSection(poolSection, "entries"));
+		for (String entryName : new TreeSet<>(entrySections.keySet())) {
+			ConfigurationSection entrySection = entrySections.get(entryName);
+			int weight = ConfigurationUtil.loadInteger(entrySection, "weight");
+			if (weight <= 0) {
+				throw new IllegalEntryTypeException(entrySection.getCurrentPath() + ".weight must be positive");
+			}
+			Optional<String> tableName = ConfigurationUtil.loadOptionalString(entrySection, "table");
+			if (tableName.isPresent()) {
+				pool.addEntry(getLootTable(tables, tableName.get()), weight);
+			} else {
+				pool.addEntry(loadDrop(entrySection, entryName), weight);
+			}
+		}
+		return pool;
+	}
+
+	private LootTable getLootTable (Map<String, LootTable> tables, String tableName) throws InvalidConfigurationException {
+		LootTable table = tables.get(tableName);
+		if (table == null) {
+			throw new IllegalEntryTypeException(tableName + " is not a loot table");
+		}
+		return table;
+	}
+
+	private void checkLootTableCycles (LootTable table, List<String> path) throws InvalidConfigurationException {
+		if (path.contains(table.getName())) {
+			path.add(table.getName());
+			throw new IllegalEntryTypeException("loot tables reference each other: " + String.join(" -> ", path));
+		}
+		path.add(table.getName());
+		for (LootTable referenced : table.getReferencedTables()) {
+			checkLootTableCycles(referenced, path);
+		}
+		path.remove(path.size() - 1);
+	}
+
+	private Set<SpawnReason> loadSpawnReasons (ConfigurationSection section, String path) throws InvalidConfigurationException {
+		Set<SpawnReason> reasons = EnumSet.noneOf(SpawnReason.class);
+		for (Object reason : ConfigurationUtil.loadList(section, path)) {
+			try {
+				reasons.add(SpawnReason.valueOf(String.valueOf(reason)));
+			} catch (IllegalArgumentException exception) {
+				throw new IllegalEntryTypeException(reason + " is not a spawn reason");
+			}
+		}
+		return Collections.unmodifiableSet(reasons);
+	}
+
+	private Map<String, Future<Calculation>> submitWorlds (ConfigurationSection worldsSection, ForkJoinPool pool)
+			throws InvalidConfigurationException {
 		Map<String, ConfigurationSection> worldSections = ConfigurationUtil.loadConfigurationSectionGroup(worldsSection);
 		if (worldSections.isEmpty()) {
 			throw new MissingEntryException("no active worlds");
 		}
-		Map<String, Calculation> worlds = new HashMap<>();
+		Map<String, Future<Calculation>> worlds = new HashMap<>();
 		for (String worldName : worldSections.keySet()) {
-			worlds.put(worldName, loadWorld(worldSections.get(worldName)));
+			ConfigurationSection worldSection = worldSections.get(worldName);
+			worlds.put(worldName, pool.submit(() -> this.worldCache.reuseOrLoad(worldSection, this::loadWorld)));
 		}
 		return worlds;
 	}
 
+	private Map<EntityType, Future<Set<EntityVariation>>> submitEntities (ConfigurationSection entitiesSection, ForkJoinPool pool)
+			throws InvalidConfigurationException {
+		Map<String, ConfigurationSection> entitySections = ConfigurationUtil.loadConfigurationSectionGroup(entitiesSection);
+		if (entitySections.isEmpty()) {
+			throw new MissingEntryException("no active entities");
+		}
+		Map<EntityType, Future<Set<EntityVariation>>> entities = new HashMap<>();
+		for (String entityType : new TreeSet<>(entitySections.keySet())) {
+			EntityType type;
+			try {
+				type = EntityType.valueOf(entityType);
+			} catch (IllegalArgumentException exception) {
+				throw new IllegalEntryTypeException(entitiesSection.getCurrentPath() + "." + entityType + " is not an entity type");
+			}
+			ConfigurationSection entitySection = entitySections.get(entityType);
+			entities.put(type, pool.submit(() -> this.entityCache.reuseOrLoad(entitySection, this::loadEntityVariations)));
+		}
+		return entities;
+	}
+
+	/**
+	 * Waits for all compiled sections. Failures are reported in the order of the section names regardless of which
+	 * section failed first, the first one is thrown and all others are attached as suppressed exceptions.
+	 */
+	private <K, T> Map<K, T> joinSections (Map<K, Future<T>> sections, ConfigurationSection parent)
+			throws InvalidConfigurationException {
+		Map<String, K> keysByName = new TreeMap<>();
+		sections.keySet().forEach(key -> keysByName.put(key.toString(), key));
+		Map<K, T> results = new HashMap<>();
+		List<InvalidConfigurationException> failures = new ArrayList<>();
+		for (Map.Entry<String, K> entry : keysByName.entrySet()) {
+			String path = parent.getCurrentPath() + "." + entry.getKey();
+			try {
+				results.put(entry.getValue(), sections.get(entry.getValue()).get());
+			} catch (ExecutionException exception) {
+				Throwable cause = exception.getCause();
+				if (cause instanceof InvalidConfigurationException || cause instanceof RuntimeException) {
+					failures.add(new InvalidConfigurationException(path + ": " + cause.getMessage(), cause));
+				} else {
+					throw new IllegalStateException("failed to compile " + path, cause);
+				}
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new InvalidConfigurationException("interrupted while compiling " + path, exception);
+			}
+		}
+		if (!failures.isEmpty()) {
+			InvalidConfigurationException failure = failures.get(0);
+			failures.subList(1, failures.size()).forEach(failure::addSuppressed);
+			throw failure;
+		}
+		return results;
+	}
+
+	/**
+	 * Waits for all world calculations. A world whose calculation fails keeps the calculation of the last parse, so a
+	 * broken formula never stops the other worlds from being reloaded. Only fails if no world has a calculation.
+	 */
+	private Map<String, Calculation> joinWorlds (Map<String, Future<Calculation>> worlds, ConfigurationSection parent)
+			throws InvalidConfigurationException {
+		Map<String, Calculation> previous = this.worldsConfiguration == null ? Collections.emptyMap() : this.worldsConfiguration;
+		Map<String, Calculation> results = new HashMap<>();
+		List<String> keptWorlds = new ArrayList<>();
+		List<InvalidConfigurationException> failures = new ArrayList<>();
+		for (String worldName : new TreeSet<>(worlds.keySet())) {
+			try {
+				results.put(worldName, joinSections(Collections.singletonMap(worldName, worlds.get(worldName)), parent).get(worldName));
+			} catch (InvalidConfigurationException exception) {
+				failures.add(exception);
+				Calculation fallback = previous.get(worldName);
+				if (fallback != null) {
+					results.put(worldName, fallback);
+					keptWorlds.add(worldName);
+				}
+				this.logger.log(Level.SEVERE, "Invalid configuration: {0}, {1}", new Object[]{exception.getMessage(),
+								fallback == null ? "spawns in this world stay unchanged" : "keeping the previous calculation"});
+			}
+		}
+		if (results.isEmpty()) {
+			InvalidConfigurationException failure = new InvalidConfigurationException("no valid worlds");
+			failures.forEach(failure::addSuppressed);
+			throw failure;
+		}
+		this.worldFallbacks = keptWorlds;
+		return results;
+	}
+
+	private void shutdownAndAwait (ForkJoinPool pool) {
+		pool.shutdown();
+		try {
+			if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				this.logger.log(Level.WARNING, "Compiling the configuration did not finish in time.");
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	private Calculation loadWorld (ConfigurationSection worldSection) throws InvalidConfigurationException {
 		Set<String> calculationVariables = worldSection.getKeys(false);
 		if (!calculationVariables.contains("level")) {
 			throw new MissingEntryException("no final variable 'level' defined");
 		}
-		if (calculationVariables.contains("x") || calculationVariables.contains("y") || calculationVariables.contains("z")) {
-			throw new IllegalEntryTypeException("'x', 'y' and 'z' are reserved values");
+		for (String reserved : SPAWN_VARIABLES) {
+			if (calculationVariables.contains(reserved)) {
+				throw new IllegalEntryTypeException("'" + reserved + "' is a reserved value");
+			}
 		}
-		Set<String> variables = new HashSet<>();
-		variables.add("x");
-		variables.add("y");
-		variables.add("z");
-		Calculation calculation = new Calculation(variables);
+		Set<String> variables = new HashSet<>(SPAWN_VARIABLES);
+		CalculationGraph graph = new CalculationGraph(variables, "level");
 		variables.addAll(calculationVariables);
 		for (String calculationStep : calculationVariables) {
-			Expression expression = new ExpressionBuilder(ConfigurationUtil.loadString(worldSection, calculationStep))
-					.functions(AdditionalMathOperations.getAdditionalFunctions())
-					.variables(variables)
-					.build();
-			calculation.addNode(new CalculationNode(calculationStep, expression));
+			Expression expression = createExpressionOf(ConfigurationUtil.loadString(worldSection, calculationStep), variables);
+			graph.addNode(new CalculationNode(calculationStep, expression));
 		}
-		return calculation;
-	}
-
-	private Map<EntityType, Set<EntityVariation>> loadEntities (ConfigurationSection entitiesSection) throws InvalidConfigurationException {
-		Map<String, ConfigurationSection> entitySections = ConfigurationUtil.loadConfigurationSectionGroup(entitiesSection);
-		if (entitySections.isEmpty()) {
-			throw new MissingEntryException("no active entities");
+		if (!graph.isValid()) {
+			throw new IllegalEntryTypeException(graph.describeProblems());
 		}
-		Map<EntityType, Set<EntityVariation>> entities = new HashMap<>();
-		for (String entityType : entitySections.keySet()) {
-			entities.put(EntityType.valueOf(entityType), loadEntityVariations(entitySections.get(entityType)));
+		if (!graph.getUnusedNodes().isEmpty()) {
+			this.logger.log(Level.WARNING, "{0}: {1} not used to calculate the level",
+							new Object[]{worldSection.getCurrentPath(), graph.getUnusedNodes()});
 		}
-		return entities;
+		return graph.build();
 	}
 
 	private Set<EntityVariation> loadEntityVariations (ConfigurationSection entitySection) throws InvalidConfigurationException {
@@ -215,26 +859,65 @@ public final class ConfigurationParser {
 			throw new MissingEntryException("no active entities");
 		}
 		Set<EntityVariation> variations = new HashSet<>();
+		Map<Integer, String> variationIds = new HashMap<>();
 		for (String variationName : variationSections.keySet()) {
-			variations.add(loadVariation(variationSections.get(variationName), variationName));
+			String collision = variationIds.putIfAbsent(MobState.variationId(variationName), variationName);
+			if (collision != null) {
+				throw new IllegalEntryTypeException("variations " + collision + " and " + variationName
+													+ " have the same id, rename one of them");
+			}
+			variations.add(this.variationCache.reuseOrLoad(variationSections.get(variationName),
+														   section -> loadVariation(section, variationName)));
 		}
 		return variations;
 	}
 
 	private EntityVariation loadVariation (ConfigurationSection variationSection, String variationName) throws InvalidConfigurationException {
-		Expression weight = createExpressionOf(ConfigurationUtil.loadString(variationSection, "weight"), new HashSet<>(Arrays.asList("level", "x", "y", "z")));
+		Expression weight = createExpressionOf(ConfigurationUtil.loadString(variationSection, "weight"), VARIATION_VARIABLES);
 		EntityVariation variation = new EntityVariation(variationName, weight, plugin);
+		variation.setPath(variationSection.getCurrentPath());
 		variation.setNameVisible(ConfigurationUtil.loadBoolean(variationSection, "name-visible", false));
 		variation.setNamePattern(ConfigurationUtil.loadString(variationSection, "name", null));
-		variation.setExpDrop(createExpressionOf(ConfigurationUtil.loadString(variationSection, "experience", "-1"), new HashSet<>(Arrays.asList("level", "x", "y", "z"))));
+		variation.setExpDrop(createExpressionOf(ConfigurationUtil.loadString(variationSection, "experience", "-1"), VARIATION_VARIABLES));
 		Optional<ConfigurationSection> drops = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "loot");
 		if (drops.isPresent()) {
 			loadDrops(drops.get(), variation);
 		}
+		if (variationSection.contains("spawn-reasons", true)) {
+			variation.setSpawnReasons(loadSpawnReasons(variationSection, "spawn-reasons"));
+		}
+		for (Object tableName : ConfigurationUtil.loadList(variationSection, "loot-tables", Collections.emptyList())) {
+			variation.addLootTable(getLootTable(this.lootTables, String.valueOf(tableName)));
+		}
+		Optional<ConfigurationSection> vanillaLoot = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "vanilla-loot");
+		if (vanillaLoot.isPresent()) {
+			variation.setVanillaLoot(loadVanillaLoot(vanillaLoot.get()));
+		}
 		Optional<ConfigurationSection> attributes = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "attributes");
 		if (attributes.isPresent()) {
 			loadAttributes(attributes.get(), variation);
 		}
+		if (this.plugin == null) {
+			// equipment, effects and abilities only act on entities and need a server to resolve their types
+			return variation;
+		}
+		Optional<ConfigurationSection> equipment = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "equipment");
+		if (equipment.isPresent()) {
+			loadEquipment(equipment.get(), variation);
+		}
+		Optional<ConfigurationSection> effects = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "effects");
+		if (effects.isPresent()) {
+			for (String effectName : effects.get().getKeys(false)) {
+				ConfigurationSection effectSection = ConfigurationUtil.loadConfigurationSection(effects.get(), effectName);
+				variation.addEffect(loadEffect(effectSection, effectName, ConfigurationUtil.loadString(effectSection, "duration", "-1")));
+			}
+		}
+		Optional<ConfigurationSection> abilities = ConfigurationUtil.loadOptionalConfigurationSection(variationSection, "abilities");
+		if (abilities.isPresent()) {
+			for (String abilityName : abilities.get().getKeys(false)) {
+				variation.addAbility(loadAbility(ConfigurationUtil.loadConfigurationSection(abilities.get(), abilityName), abilityName));
+			}
+		}
 		return variation;
 	}
 
@@ -244,31 +927,123 @@ public final class ConfigurationParser {
 			return;
 		}
 		for (String dropIdentifier : dropSections.keySet()) {
-			variation.addDrop(loadDrop(dropSections.get(dropIdentifier), dropIdentifier));
+			variation.addDrop(this.dropCache.reuseOrLoad(dropSections.get(dropIdentifier),
+														 section -> loadDrop(section, dropIdentifier)));
 		}
 	}
 
 	private DropVariation loadDrop (ConfigurationSection dropSection, String dropIdentifier) throws InvalidConfigurationException {
 		Material type = ConfigurationUtil.loadEnumValue(dropSection, "type", Material.class);
-		Expression dropChance = createExpressionOf(ConfigurationUtil.loadString(dropSection, "drop-chance", "1"), new HashSet<>(Arrays.asList("level", "x", "y", "z")));
+		Expression dropChance = createExpressionOf(ConfigurationUtil.loadString(dropSection, "drop-chance", "1"), VARIATION_VARIABLES);
 		DropVariation drop = new DropVariation(dropIdentifier, dropChance, type);
+		drop.setPath(dropSection.getCurrentPath());
         drop.setName(ConfigurationUtil.loadString(dropSection, "item-name", null));
         drop.setLore(ConfigurationUtil.loadString(dropSection, "item-lore", null));
-		drop.setAmount(createExpressionOf(ConfigurationUtil.loadString(dropSection, "amount", "1"), new HashSet<>(Arrays.asList("level", "x", "y", "z"))));
-		drop.setDamage(createExpressionOf(ConfigurationUtil.loadString(dropSection, "damage", "0"), new HashSet<>(Arrays.asList("level", "x", "y", "z"))));
-		drop.setData(createExpressionOf(ConfigurationUtil.loadString(dropSection, "data", "0"), new HashSet<>(Arrays.asList("level", "x", "y", "z"))));
+		drop.setAmount(createExpressionOf(ConfigurationUtil.loadString(dropSection, "amount", "1"), VARIATION_VARIABLES));
+		drop.setDamage(createExpressionOf(ConfigurationUtil.loadString(dropSection, "damage", "0"), VARIATION_VARIABLES));
+		drop.setData(createExpressionOf(ConfigurationUtil.loadString(dropSection, "data", "0"), VARIATION_VARIABLES));
 		return drop;
 	}
 
+	private VanillaLootVariation loadVanillaLoot (ConfigurationSection vanillaLootSection) throws InvalidConfigurationException {
+		VanillaLootVariation vanillaLoot = new VanillaLootVariation(createExpressionOf(ConfigurationUtil.loadString(vanillaLootSection, "multiplier", "1"), VARIATION_VARIABLES));
+		Optional<ConfigurationSection> materials = ConfigurationUtil.loadOptionalConfigurationSection(vanillaLootSection, "materials");
+		if (materials.isPresent()) {
+			for (String materialName : materials.get().getKeys(false)) {
+				Material material = Material.getMaterial(materialName);
+				if (material == null) {
+					throw new IllegalEntryTypeException(materialName + " is not a material");
+				}
+				vanillaLoot.addMaterialMultiplier(material, createExpressionOf(ConfigurationUtil.loadString(materials.get(), materialName), VARIATION_VARIABLES));
+			}
+		}
+		return vanillaLoot;
+	}
+
+	private void loadEquipment (ConfigurationSection equipmentSection, EntityVariation variation) throws InvalidConfigurationException {
+		for (String slotName : equipmentSection.getKeys(false)) {
+			EquipmentSlot slot;
+			try {
+				slot = EquipmentSlot.valueOf(slotName);
+			} catch (IllegalArgumentException exception) {
+				throw new IllegalEntryTypeException(slotName + " is not an equipment slot");
+			}
+			variation.addEquipment(loadEquipmentItem(ConfigurationUtil.loadConfigurationSection(equipmentSection, slotName), slot));
+		}
+	}
+
+	private EquipmentVariation loadEquipmentItem (ConfigurationSection itemSection, EquipmentSlot slot) throws InvalidConfigurationException {
+		List<Material> tiers = new ArrayList<>();
+		if (itemSection.isList("type")) {
+			for (Object type : ConfigurationUtil.loadList(itemSection, "type")) {
+				Material material = Material.getMaterial(String.valueOf(type));
+				if (material == null) {
+					throw new IllegalEntryTypeException(type + " is not a material");
+				}
+				tiers.add(material);
+			}
+		} else {
+			tiers.add(ConfigurationUtil.loadEnumValue(itemSection, "type", Material.class));
+		}
+		if (tiers.isEmpty()) {
+			throw new IllegalEntryTypeException(itemSection.getCurrentPath() + ".type contains no material");
+		}
+		EquipmentVariation item = new EquipmentVariation(slot, tiers,
+														 createExpressionOf(ConfigurationUtil.loadString(itemSection, "tier", "0"), LEVEL_VARIABLES));
+		Optional<String> dropChance = ConfigurationUtil.loadOptionalString(itemSection, "drop-chance");
+		if (dropChance.isPresent()) {
+			item.setDropChance(createExpressionOf(dropChance.get(), VARIATION_VARIABLES));
+		}
+		Optional<ConfigurationSection> enchantments = ConfigurationUtil.loadOptionalConfigurationSection(itemSection, "enchantments");
+		if (enchantments.isPresent()) {
+			for (String enchantmentName : enchantments.get().getKeys(false)) {
+				Enchantment enchantment = Enchantment.getByName(enchantmentName);
+				if (enchantment == null) {
+					throw new IllegalEntryTypeException(enchantmentName + " is not an enchantment");
+				}
+				item.addEnchantment(enchantment, createExpressionOf(ConfigurationUtil.loadString(enchantments.get(), enchantmentName), LEVEL_VARIABLES));
+			}
+		}
+		return item;
+	}
+
+	private EffectVariation loadEffect (ConfigurationSection effectSection, String effectName, String duration) throws InvalidConfigurationException {
+		PotionEffectType type = PotionEffectType.getByName(effectName);
+		if (type == null) {
+			throw new IllegalEntryTypeException(effectName + " is not a potion effect");
+		}
+		EffectVariation effect = new EffectVariation(type,
+													 createExpressionOf(ConfigurationUtil.loadString(effectSection, "amplifier", "0"), VARIATION_VARIABLES),
+													 createExpressionOf(duration, VARIATION_VARIABLES));
+		effect.setParticles(ConfigurationUtil.loadBoolean(effectSection, "particles", true));
+		return effect;
+	}
+
+	private AbilityVariation loadAbility (ConfigurationSection abilitySection, String abilityName) throws InvalidConfigurationException {
+		AbilityVariation ability = new AbilityVariation(abilityName, abilityScheduler,
+														createExpressionOf(ConfigurationUtil.loadString(abilitySection, "interval"), VARIATION_VARIABLES));
+		Optional<String> heal = ConfigurationUtil.loadOptionalString(abilitySection, "heal");
+		if (heal.isPresent()) {
+			ability.setHeal(createExpressionOf(heal.get(), VARIATION_VARIABLES));
+		}
+		Optional<String> effect = ConfigurationUtil.loadOptionalString(abilitySection, "effect");
+		if (effect.isPresent()) {
+			ability.setEffect(loadEffect(abilitySection, effect.get(), ConfigurationUtil.loadString(abilitySection, "duration")));
+		}
+		return ability;
+	}
+
 	private void loadAttributes (ConfigurationSection attributesSection, EntityVariation variation) throws InvalidConfigurationException {
 		Set<String> attributes = attributesSection.getKeys(false);
 		for (String attribute : attributes) {
-			variation.addAttribute(Attribute.valueOf(attribute), createExpressionOf(ConfigurationUtil.loadString(attributesSection, attribute), new HashSet<>(Arrays.asList("level", "x", "y", "z"))));
+			String text = ConfigurationUtil.loadString(attributesSection, attribute);
+			Expression value = createExpressionOf(text, VARIATION_VARIABLES);
+			boolean constantPerLevel = LEVEL_VARIABLES.containsAll(value.getVariableNames()) && !RANDOM_FUNCTION.matcher(text).find();
+			variation.addAttribute(Attribute.valueOf(attribute), value, constantPerLevel);
 		}
 	}
 
 	private Expression createExpressionOf (String expression, Set<String> variables) {
-		return new ExpressionBuilder(expression).operator(AdditionalMathOperations.getAdditionalOperator())
-				.functions(AdditionalMathOperations.getAdditionalFunctions()).variables(variables).build();
+		return this.expressionCache.get(expression, variables);
 	}
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters.math;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks the nodes of a calculation as a dependency graph before building it.
+ * <p>
+ * Starting from the result variable, every required variable must be an input or be provided by a node, nodes must
+ * not depend on themselves over any path, and nodes the result does not depend on are reported as unused. The
+ * topological order of the needed nodes is computed once, unused nodes are left out of the built calculation.
+ */
+public final class CalculationGraph {
+
+	private final Set<String> inputs;
+	private final String result;
+	private final Map<String, CalculationNode> nodes = new LinkedHashMap<>();
+
+	private final Map<String, Set<String>> missingVariables = new TreeMap<>();
+	private final List<List<String>> cycles = new ArrayList<>();
+	private final Set<String> unusedNodes = new TreeSet<>();
+	private final List<CalculationNode> order = new ArrayList<>();
+	private boolean analyzed = false;
+
+	/**
+	 * Creates an empty graph.
+	 *
+	 * @param inputs variables set before the calculation runs
+	 * @param result variable the calculation has to provide
+	 */
+	public CalculationGraph (Set<String> inputs, String result) {
+		this.inputs = Collections.unmodifiableSet(new HashSet<>(inputs));
+		this.result = Objects.requireNonNull(result);
+	}
+
+	/**
+	 * Adds a node.
+	 *
+	 * @param node node to add
+	 * @throws IllegalArgumentException if the variable of the node is an input or already provided by another node
+	 */
+	public void addNode (CalculationNode node) {
+		String variable = node.getProvidedVariable();
+		if (this.inputs.contains(variable) || this.nodes.containsKey(variable)) {
+			throw new IllegalArgumentException("'" + variable + "' is provided twice");
+		}
+		this.nodes.put(variable, node);
+		this.analyzed = false;
+	}
+
+	/**
+	 * Returns the variables required but neither input nor provided, by the needed node requiring them.
+	 *
+	 * @return missing variables per node
+	 */
+	public Map<String, Set<String>> getMissingVariables () {
+		analyze();
+		return Collections.unmodifiableMap(this.missingVariables);
+	}
+
+	/**
+	 * Returns the cycles among the needed nodes, every cycle lists its variables in dependency order.
+	 *
+	 * @return cycles
+	 */
+	public List<List<String>> getCycles () {
+		analyze();
+		return Collections.unmodifiableList(this.cycles);
+	}
+
+	/**
+	 * Returns the nodes the result does not depend on.
+	 *
+	 * @return variables of unused nodes
+	 */
+	public Set<String> getUnusedNodes () {
+		analyze();
+		return Collections.unmodifiableSet(this.unusedNodes);
+	}
+
+	/**
+	 * Checks whether the result can be calculated.
+	 *
+	 * @return whether the graph is valid
+	 */
+	public boolean isValid () {
+		analyze();
+		return this.missingVariables.isEmpty() && this.cycles.isEmpty()
+			   && (this.inputs.contains(this.result) || this.nodes.containsKey(this.result));
+	}
+
+	/**
+	 * Describes why the graph is not valid.
+	 *
+	 * @return problems separated by semicolons, empty if the graph is valid
+	 */
+	public String describeProblems () {
+		analyze();
+		List<String> problems = new ArrayList<>();
+		if (!this.inputs.contains(this.result) && !this.nodes.containsKey(this.result)) {
+			problems.add("no variable '" + this.result + "' defined");
+		}
+		for (Map.Entry<String, Set<String>> missing : this.missingVariables.entrySet()) {
+			problems.add("'" + missing.getKey() + "' uses undefined " + missing.getValue());
+		}
+		for (List<String> cycle : this.cycles) {
+			problems.add("cycle " + String.join(" -> ", cycle) + " -> " + cycle.get(0));
+		}
+		return String.join("; ", problems);
+	}
+
+	/**
+	 * Builds a calculation running the needed nodes in topological order.
+	 *
+	 * @return calculation providing the result
+	 * @throws IllegalStateException if the graph is not valid
+	 */
+	public Calculation build () {
+		if (!isValid()) {
+			throw new IllegalStateException(describeProblems());
+		}
+		Calculation calculation = new Calculation(this.inputs);
+		this.order.forEach(calculation::addNode);
+		return calculation;
+	}
+
+	private void analyze () {
+		if (this.analyzed) {
+			return;
+		}
+		this.missingVariables.clear();
+		this.cycles.clear();
+		this.order.clear();
+		Map<String, Boolean> visited = new HashMap<>();
+		List<String> path = new ArrayList<>();
+		if (this.nodes.containsKey(this.result)) {
+			visit(this.result, visited, path);
+		}
+		this.unusedNodes.clear();
+		for (String variable : this.nodes.keySet()) {
+			if (!visited.containsKey(variable)) {
+				this.unusedNodes.add(variable);
+			}
+		}
+		this.analyzed = true;
+	}
+
+	/**
+	 * Depth first search over the required variables. Variables on the current path map to false, finished ones to
+	 * true, finished nodes are appended to the order after all their dependencies.
+	 */
+	private void visit (String variable, Map<String, Boolean> visited, List<String> path) {
+		visited.put(variable, false);
+		path.add(variable);
+		CalculationNode node = this.nodes.get(variable);
+		for (String required : new TreeSet<>(node.getRequiredVariables())) {
+			if (this.inputs.contains(required)) {
+				continue;
+			}
+			if (!this.nodes.containsKey(required)) {
+				this.missingVariables.computeIfAbsent(variable, key -> new LinkedHashSet<>()).add(required);
+				continue;
+			}
+			Boolean finished = visited.get(required);
+			if (finished == null) {
+				visit(required, visited, path);
+			} else if (!finished) {
+				this.cycles.add(new ArrayList<>(path.subList(path.indexOf(required), path.size())));
+			}
+		}
+		path.remove(path.size() - 1);
+		visited.put(variable, true);
+		this.order.add(node);
+	}
+}
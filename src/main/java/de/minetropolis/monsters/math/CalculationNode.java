@@ -16,6 +16,7 @@
  */
 package de.minetropolis.monsters.math;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -28,6 +29,7 @@ public class CalculationNode {
 
 	private final String variableName;
 	private final Expression expression;
+	private final Set<String> requiredVariables;
 
 	public CalculationNode (String variableName, Expression expression) {
 		this.variableName = Objects.requireNonNull(variableName);
@@ -35,14 +37,22 @@ public class CalculationNode {
 			throw new IllegalArgumentException();
 		}
 		this.expression = Objects.requireNonNull(expression);
+		this.requiredVariables = Collections.unmodifiableSet(expression.getVariableNames());
 	}
 
 	public void calculateAndAddVariable (Map<String, Double> variables) {
 		variables.put(variableName, calculateVariable(variables));
 	}
 
+	/**
+	 * Evaluates the expression. Expressions hold the variables of the running evaluation, only expressions of an
+	 * {@link ExpressionCache} keep them per thread and may be evaluated by several threads at once.
+	 *
+	 * @param variables variables to evaluate with
+	 * @return result of the expression
+	 */
 	public double calculateVariable (Map<String, Double> variables) {
-		if (!variables.keySet().containsAll(getRequiredVariables())) {
+		if (!variables.keySet().containsAll(this.requiredVariables)) {
 			throw new IllegalArgumentException("missing variables");
 		}
 		return expression.setVariables(variables).evaluate();
@@ -53,7 +63,7 @@ public class CalculationNode {
 	}
 
 	public Set<String> getRequiredVariables () {
-		return expression.getVariableNames();
+		return this.requiredVariables;
 	}
 
 	@Override
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters.math;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+/**
+ * Compiles expressions with the {@link AdditionalMathOperations} and shares equal expressions.
+ * <p>
+ * Expressions are equal if their text without insignificant whitespace and their set of allowed variables are equal.
+ * Shared expressions are only referenced weakly, so they get evicted as soon as no calculation uses them anymore.
+ * As exp4j expressions keep the values of their variables, a shared expression sets and evaluates variables on a copy
+ * per thread. All users of an expression share these copies, every user has to set all variables of an expression
+ * right before evaluating it, like {@link CalculationNode} does.
+ */
+public final class ExpressionCache {
+
+	private final ConcurrentMap<Key, ExpressionReference> expressions = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Expression> evicted = new ReferenceQueue<>();
+
+	public ExpressionCache () {
+	}
+
+	/**
+	 * Returns the compiled expression for the given text and variables, compiling it if it is not cached yet.
+	 *
+	 * @param expression text of the expression
+	 * @param variables  variables the expression may use
+	 * @return compiled expression
+	 * @throws IllegalArgumentException when the expression is invalid
+	 */
+	public Expression get (String expression, Set<String> variables) {
+		expungeEvictedExpressions();
+		Key key = new Key(normalize(expression), variables);
+		Expression[] compiled = new Expression[1];
+		this.expressions.compute(key, (cacheKey, reference) -> {
+			compiled[0] = reference == null ? null : reference.get();
+			if (compiled[0] != null) {
+				return reference;
+			}
+			compiled[0] = new SharedExpression(compile(cacheKey.expression, cacheKey.variables));
+			return new ExpressionReference(compiled[0], cacheKey, this.evicted);
+		});
+		return compiled[0];
+	}
+
+	/**
+	 * Returns the amount of distinct expressions currently cached.
+	 *
+	 * @return amount of cached expressions
+	 */
+	public int size () {
+		expungeEvictedExpressions();
+		return this.expressions.size();
+	}
+
+	/**
+	 * Removes whitespace that does not separate two names or numbers.
+	 *
+	 * @param expression text of an expression
+	 * @return normalized text
+	 */
+	static String normalize (String expression) {
+		String trimmed = expression.trim();
+		StringBuilder normalized = new StringBuilder(trimmed.length());
+		for (int index = 0; index < trimmed.length(); index++) {
+			char character = trimmed.charAt(index);
+			if (!Character.isWhitespace(character)) {
+				normalized.append(character);
+				continue;
+			}
+			int next = index + 1;
+			while (Character.isWhitespace(trimmed.charAt(next))) {
+				next++;
+			}
+			if (isNameOrNumber(trimmed.charAt(index - 1)) && isNameOrNumber(trimmed.charAt(next))) {
+				normalized.append(' ');
+			}
+			index = next - 1;
+		}
+		return normalized.toString();
+	}
+
+	private static boolean isNameOrNumber (char character) {
+		return Character.isLetterOrDigit(character) || character == '_' || character == '.';
+	}
+
+	private static Expression compile (String expression, Set<String> variables) {
+		return new ExpressionBuilder(expression).operator(AdditionalMathOperations.getAdditionalOperator())
+				.functions(AdditionalMathOperations.getAdditionalFunctions()).variables(variables).build();
+	}
+
+	private void expungeEvictedExpressions () {
+		for (Reference<? extends Expression> reference = this.evicted.poll(); reference != null;
+			 reference = this.evicted.poll()) {
+			ExpressionReference expressionReference = (ExpressionReference) reference;
+			this.expressions.remove(expressionReference.key, expressionReference);
+		}
+	}
+
+	private static final class Key {
+
+		private final String expression;
+		private final SortedSet<String> variables;
+		private final int hash;
+
+		private Key (String expression, Set<String> variables) {
+			this.expression = expression;
+			this.variables = Collections.unmodifiableSortedSet(new TreeSet<>(variables));
+			this.hash = 31 * expression.hashCode() + this.variables.hashCode();
+		}
+
+		@Override
+		public int hashCode () {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return this.hash == other.hash && Objects.equals(this.expression, other.expression)
+				   && Objects.equals(this.variables, other.variables);
+		}
+	}
+
+	/**
+	 * Compiled expression that keeps its variables per thread.
+	 */
+	private static final class SharedExpression extends Expression {
+
+		private final ThreadLocal<Expression> evaluators;
+
+		private SharedExpression (Expression compiled) {
+			super(compiled);
+			this.evaluators = ThreadLocal.withInitial(() -> new Expression(compiled));
+		}
+
+		@Override
+		public Expression setVariable (String name, double value) {
+			return this.evaluators.get().setVariable(name, value);
+		}
+
+		@Override
+		public Expression setVariables (Map<String, Double> variables) {
+			return this.evaluators.get().setVariables(variables);
+		}
+
+		@Override
+		public ValidationResult validate (boolean checkVariablesSet) {
+			return this.evaluators.get().validate(checkVariablesSet);
+		}
+
+		@Override
+		public ValidationResult validate () {
+			return this.evaluators.get().validate();
+		}
+
+		@Override
+		public Future<Double> evaluateAsync (ExecutorService executor) {
+			return this.evaluators.get().evaluateAsync(executor);
+		}
+
+		@Override
+		public double evaluate () {
+			return this.evaluators.get().evaluate();
+		}
+	}
+
+	private static final class ExpressionReference extends WeakReference<Expression> {
+
+		private final Key key;
+
+		private ExpressionReference (Expression expression, Key key, ReferenceQueue<Expression> queue) {
+			super(expression, queue);
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters.simulation;
+
+import de.minetropolis.monsters.EntityDeathData;
+import de.minetropolis.monsters.EntityVariation;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Counts the outcomes of simulated spawns. Memory only grows with the number of distinct levels, variations and
+ * materials, not with the number of spawns.
+ */
+public final class SimulationReport {
+
+	private static final double TICKS_PER_HOUR = 20 * 60 * 60;
+
+	private final Map<Integer, long[]> levels = new TreeMap<>();
+	private final Map<EntityType, Map<String, long[]>> variations = new EnumMap<>(EntityType.class);
+	private final Map<Material, long[]> drops = new EnumMap<>(Material.class);
+	private final long[] costBuckets = new long[64];
+	private long spawns = 0;
+	private long untouched = 0;
+	private long failed = 0;
+	private long skipped = 0;
+	private long damaged = 0;
+	private Map<String, Long> failures = Collections.emptyMap();
+	private long experience = 0;
+	private long totalCost = 0;
+	private long maximumCost = 0;
+	private long firstTick = -1;
+	private long lastTick = 0;
+
+	/**
+	 * Counts a spawn that no variation applies to.
+	 *
+	 * @param tick tick of the spawn
+	 */
+	public void addUntouched (long tick) {
+		this.untouched++;
+		addTick(tick);
+	}
+
+	/**
+	 * Counts a spawn whose calculations failed.
+	 *
+	 * @param tick tick of the spawn
+	 */
+	public void addFailed (long tick) {
+		this.failed++;
+		addTick(tick);
+	}
+
+	/**
+	 * Counts a changed spawn.
+	 *
+	 * @param tick      tick of the spawn
+	 * @param type      entity type of the spawn
+	 * @param variation chosen variation
+	 * @param level     level of the spawn
+	 * @param deathData loot and experience rolled for the spawn
+	 * @param cost      nanoseconds the calculations took
+	 */
+	public void addSpawn (long tick, EntityType type, EntityVariation variation, int level, EntityDeathData deathData, long cost) {
+		this.spawns++;
+		addTick(tick);
+		this.levels.computeIfAbsent(level, key -> new long[1])[0]++;
+		this.variations.computeIfAbsent(type, key -> new HashMap<>())
+				.computeIfAbsent(variation.getName(), key -> new long[1])[0]++;
+		if (deathData.getDroppedExp() > 0) {
+			this.experience += deathData.getDroppedExp();
+		}
+		for (ItemStack item : deathData.getDrops()) {
+			this.drops.computeIfAbsent(item.getType(), key -> new long[1])[0] += item.getAmount();
+		}
+		this.totalCost += cost;
+		this.maximumCost = Math.max(this.maximumCost, cost);
+		this.costBuckets[64 - Long.numberOfLeadingZeros(Math.max(cost, 1)) - 1]++;
+	}
+
+	/**
+	 * Sets how many spawns of the log could not be simulated.
+	 *
+	 * @param skipped skipped spawns
+	 */
+	public void setSkipped (long skipped) {
+		this.skipped = skipped;
+	}
+
+	/**
+	 * Sets how many damaged parts of the log were dropped.
+	 *
+	 * @param damaged dropped parts
+	 */
+	public void setDamaged (long damaged) {
+		this.damaged = damaged;
+	}
+
+	/**
+	 * Sets the failures counted during the simulation.
+	 *
+	 * @param failures failures per variation, drop or world
+	 */
+	public void setFailures (Map<String, Long> failures) {
+		this.failures = new TreeMap<>(failures);
+	}
+
+	private void addTick (long tick) {
+		if (this.firstTick < 0) {
+			this.firstTick = tick;
+		}
+		this.lastTick = tick;
+	}
+
+	/**
+	 * Prints the report.
+	 *
+	 * @param out stream to print to
+	 */
+	public void print (PrintStream out) {
+		double hours = this.firstTick < 0 ? 0 : (this.lastTick - this.firstTick) / TICKS_PER_HOUR;
+		out.printf("Spawns: %d changed, %d untouched, %d failed, %d skipped, %.2f hours recorded%n", this.spawns,
+				   this.untouched, this.failed, this.skipped, hours);
+		if (this.damaged > 0) {
+			out.printf("Dropped %d damaged parts of the log%n", this.damaged);
+		}
+		out.println();
+		out.println("Levels:");
+		for (Map.Entry<Integer, long[]> level : this.levels.entrySet()) {
+			out.printf("  %6d %12d %6.2f%%%n", level.getKey(), level.getValue()[0], share(level.getValue()[0]));
+		}
+		out.println();
+		out.println("Variations:");
+		for (Map.Entry<EntityType, Map<String, long[]>> type : this.variations.entrySet()) {
+			for (Map.Entry<String, long[]> variation : new TreeMap<>(type.getValue()).entrySet()) {
+				out.printf("  %s %s %d %.2f%%%n", type.getKey(), variation.getKey(), variation.getValue()[0],
+						   share(variation.getValue()[0]));
+			}
+		}
+		out.println();
+		out.println(hours > 0 ? "Drops per hour:" : "Drops:");
+		for (Map.Entry<Material, long[]> drop : this.drops.entrySet()) {
+			out.printf("  %s %.1f%n", drop.getKey(), perHour(drop.getValue()[0], hours));
+		}
+		out.printf("  experience %.1f%n", perHour(this.experience, hours));
+		out.println();
+		out.printf("Evaluation cost per spawn: %.0f ns mean, %d ns p50, %d ns p99, %d ns max%n",
+				   this.spawns == 0 ? 0.0 : (double) this.totalCost / this.spawns, percentile(0.5), percentile(0.99),
+				   this.maximumCost);
+		if (!this.failures.isEmpty()) {
+			out.println();
+			out.println("Failures:");
+			for (Map.Entry<String, Long> failure : this.failures.entrySet()) {
+				out.printf("  %s %d%n", failure.getKey(), failure.getValue());
+			}
+		}
+	}
+
+	private double share (long count) {
+		return this.spawns == 0 ? 0 : 100.0 * count / this.spawns;
+	}
+
+	private static double perHour (long amount, double hours) {
+		return hours > 0 ? amount / hours : amount;
+	}
+
+	/**
+	 * Returns the upper bound of the power of two bucket holding the given share of the costs.
+	 */
+	private long percentile (double share) {
+		long target = (long) Math.ceil(this.spawns * share);
+		long count = 0;
+		for (int bucket = 0; bucket < this.costBuckets.length; bucket++) {
+			count += this.costBuckets[bucket];
+			if (count >= target && count > 0) {
+				return Math.min(this.maximumCost, (2L << bucket) - 1);
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minetropolis.monsters.simulation;
+
+import de.minetropolis.monsters.AbilityScheduler;
+import de.minetropolis.monsters.ChunkContextCache;
+import de.minetropolis.monsters.EntityDeathData;
+import de.minetropolis.monsters.EntityVariation;
+import de.minetropolis.monsters.FailureMonitor;
+import de.minetropolis.monsters.MonsterSpawnEventListener;
+import de.minetropolis.monsters.PlayerProximityIndex;
+import de.minetropolis.monsters.SpawnLogReader;
+import de.minetropolis.monsters.WorldContextCache;
+import de.minetropolis.monsters.configuration.ConfigurationParser;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Replays a spawn log recorded by {@link de.minetropolis.monsters.SpawnRecorder} through a config without server and
+ * prints levels, variations, drops and evaluation cost:
+ * {@code java -cp <plugin jar>:<server jar> de.minetropolis.monsters.simulation.SimulationRunner <config> <log> [seed]}
+ * <p>
+ * Players, time, weather and light take the same neutral values as on level maps, every spawner spawn is calculated
+ * on its own. The log is streamed, so its length is only limited by time. Failing calculations are counted like on the
+ * server, by variation, drop or world, and the replay goes on, but nothing gets disabled.
+ */
+public final class SimulationRunner {
+
+	private final MonsterSpawnEventListener listener = new MonsterSpawnEventListener();
+	private final FailureMonitor monitor;
+	private final Random random;
+
+	/**
+	 * Creates a runner for a parsed config.
+	 *
+	 * @param parser parsed config
+	 * @param seed   seed for variation choices and loot rolls
+	 * @param logger logger the first failure of each variation, drop or world is reported to
+	 */
+	public SimulationRunner (ConfigurationParser parser, long seed, Logger logger) {
+		if (!parser.isParsed()) {
+			throw new IllegalArgumentException("config is not parsed");
+		}
+		PlayerProximityIndex playerIndex = new PlayerProximityIndex();
+		playerIndex.setRadius(parser.getPlayerProximityRadius());
+		this.listener.addVariableProvider(playerIndex);
+		this.listener.addVariableProvider(new WorldContextCache());
+		this.listener.addVariableProvider(new ChunkContextCache());
+		this.listener.setWorldsConfiguration(parser.getWorldsConfiguration());
+		this.listener.setEntitiesConfiguration(parser.getEntitiesConfiguration());
+		this.listener.setSpawnReasons(parser.getDefaultSpawnReasons(), parser.getWorldSpawnReasons());
+		this.monitor = new FailureMonitor(logger);
+		this.monitor.setPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Simulates every spawn of the log.
+	 *
+	 * @param log    log to replay
+	 * @param report report to add the spawns to
+	 * @throws IOException if the log cannot be read
+	 */
+	public void run (SpawnLogReader log, SimulationReport report) throws IOException {
+		while (log.next()) {
+			long start = System.nanoTime();
+			Set<EntityVariation> variations = this.listener.getVariations(log.getWorld(), log.getType(), log.getReason());
+			if (variations == null) {
+				report.addUntouched(log.getTick());
+				continue;
+			}
+			Map<String, Double> variables;
+			int level;
+			try {
+				variables = this.listener.calculateDefaultVariables(log.getWorld(), log.getX(), log.getY(), log.getZ());
+				level = Math.toIntExact(Math.round(variables.get("level")));
+			} catch (RuntimeException exception) {
+				this.monitor.recordFailure(log.getWorld().intern(), "World " + log.getWorld(), exception);
+				report.addFailed(log.getTick());
+				continue;
+			}
+			EntityVariation variation = EntityVariation.chooseWeighted(variations, variables, this.random, this.monitor);
+			if (variation == null) {
+				report.addUntouched(log.getTick());
+				continue;
+			}
+			EntityDeathData deathData;
+			try {
+				deathData = variation.createDeathData(variables, this.random.nextInt(), this.monitor);
+			} catch (RuntimeException exception) {
+				this.monitor.recordFailure(variation, variation.getFailureName(), exception);
+				report.addFailed(log.getTick());
+				continue;
+			}
+			report.addSpawn(log.getTick(), log.getType(), variation, level, deathData, System.nanoTime() - start);
+		}
+		report.setSkipped(log.getSkipped());
+		report.setDamaged(log.getDamaged());
+		report.setFailures(this.monitor.getFailureCounts());
+	}
+
+	public static void main (String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: SimulationRunner <config.yml> <spawns.bin> [seed]");
+			System.exit(2);
+			return;
+		}
+		long seed;
+		try {
+			seed = args.length == 3 ? Long.parseLong(args[2]) : 0;
+		} catch (NumberFormatException exception) {
+			System.err.println("Seed must be a number: " + args[2]);
+			System.exit(2);
+			return;
+		}
+		Logger logger = Logger.getLogger("DynamicMonsters");
+		ConfigurationParser parser = new ConfigurationParser(logger, new AbilityScheduler());
+		parser.parseConfiguration(YamlConfiguration.loadConfiguration(new File(args[0])));
+		if (!parser.isParsed()) {
+			System.exit(1);
+			return;
+		}
+		SimulationReport report = new SimulationReport();
+		try (SpawnLogReader log = new SpawnLogReader(new File(args[1]))) {
+			new SimulationRunner(parser, seed, logger).run(log, report);
+		}
+		report.print(System.out);
+	}
+}
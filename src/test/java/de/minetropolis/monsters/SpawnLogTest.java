@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SpawnLogTest {
+
+	private static final Logger LOGGER = Logger.getLogger("SpawnLogTest");
+
+	public SpawnLogTest () {
+	}
+
+	@Test
+	public void testSessionsRoundTrip () throws IOException {
+		File file = Files.createTempFile("spawns", ".log").toFile();
+		try {
+			SpawnRecorder recorder = new SpawnRecorder(file, LOGGER);
+			recorder.setEnabled(true);
+			recorder.record("world", "ZOMBIE", "NATURAL", -12.5, 64, -3000.125);
+			recorder.run();
+			recorder.run();
+			recorder.record("world_nether", "SKELETON", "SPAWNER", 7.25, 30.5, 0);
+			recorder.close();
+			recorder.setEnabled(true);
+			recorder.record("world", "SKELETON", "NATURAL", 1, 2, 3);
+			recorder.close();
+
+			try (SpawnLogReader reader = new SpawnLogReader(file)) {
+				assertTrue(reader.next());
+				assertSpawn(reader, "world", EntityType.ZOMBIE, SpawnReason.NATURAL, -12.5, 64, -3000.125);
+				assertEquals(0, reader.getTick());
+				assertTrue(reader.next());
+				assertSpawn(reader, "world_nether", EntityType.SKELETON, SpawnReason.SPAWNER, 7.25, 30.5, 0);
+				assertEquals(2, reader.getTick());
+				assertTrue(reader.next());
+				assertSpawn(reader, "world", EntityType.SKELETON, SpawnReason.NATURAL, 1, 2, 3);
+				assertFalse(reader.next());
+				assertEquals(0, reader.getSkipped());
+				assertEquals(0, reader.getDamaged());
+			}
+		} finally {
+			Files.delete(file.toPath());
+		}
+	}
+
+	@Test
+	public void testUnknownNamesAreSkipped () throws IOException {
+		File file = Files.createTempFile("spawns", ".log").toFile();
+		try {
+			SpawnRecorder recorder = new SpawnRecorder(file, LOGGER);
+			recorder.setEnabled(true);
+			recorder.record("world", "FUTURE_MOB", "NATURAL", 0, 0, 0);
+			recorder.record("world", "ZOMBIE", "FUTURE_REASON", 0, 0, 0);
+			recorder.record("world", "ZOMBIE", "NATURAL", -1, -2, -3);
+			recorder.close();
+
+			try (SpawnLogReader reader = new SpawnLogReader(file)) {
+				assertTrue(reader.next());
+				assertSpawn(reader, "world", EntityType.ZOMBIE, SpawnReason.NATURAL, -1, -2, -3);
+				assertFalse(reader.next());
+				assertEquals(2, reader.getSkipped());
+			}
+		} finally {
+			Files.delete(file.toPath());
+		}
+	}
+
+	@Test
+	public void testTruncatedSessionIsDropped () throws IOException {
+		File file = Files.createTempFile("spawns", ".log").toFile();
+		try {
+			SpawnRecorder recorder = new SpawnRecorder(file, LOGGER);
+			recorder.setEnabled(true);
+			recorder.record("world", "ZOMBIE", "NATURAL", 0, 0, 0);
+			recorder.close();
+			try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+				log.setLength(log.length() - 3);
+			}
+			recorder.setEnabled(true);
+			recorder.record("world", "SKELETON", "SPAWNER", -5, 70, -5);
+			recorder.close();
+
+			try (SpawnLogReader reader = new SpawnLogReader(file)) {
+				assertTrue(reader.next());
+				assertSpawn(reader, "world", EntityType.SKELETON, SpawnReason.SPAWNER, -5, 70, -5);
+				assertFalse(reader.next());
+				assertTrue(reader.getDamaged() > 0);
+			}
+		} finally {
+			Files.delete(file.toPath());
+		}
+	}
+
+	private static void assertSpawn (SpawnLogReader reader, String world, EntityType type, SpawnReason reason,
+									 double x, double y, double z) {
+		assertEquals(world, reader.getWorld());
+		assertEquals(type, reader.getType());
+		assertEquals(reason, reader.getReason());
+		assertEquals(x, reader.getX(), 1.0 / SpawnRecorder.COORDINATE_SCALE);
+		assertEquals(y, reader.getY(), 1.0 / SpawnRecorder.COORDINATE_SCALE);
+		assertEquals(z, reader.getZ(), 1.0 / SpawnRecorder.COORDINATE_SCALE);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters.math;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class CalculationGraphTest {
+
+	private static final Set<String> INPUTS = new HashSet<>(Arrays.asList("x", "y", "z"));
+	private static final Set<String> VARIABLES = new HashSet<>(Arrays.asList("x", "y", "z", "a", "b", "c", "level"));
+
+	public CalculationGraphTest () {
+	}
+
+	private CalculationNode createNode (String variable, String expression) {
+		Expression compiled = new ExpressionBuilder(expression).operator(AdditionalMathOperations.getAdditionalOperator())
+				.functions(AdditionalMathOperations.getAdditionalFunctions()).variables(VARIABLES).build();
+		return new CalculationNode(variable, compiled);
+	}
+
+	@Test
+	public void testOrderIndependentOfInsertion () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("level", "a + b"));
+		graph.addNode(createNode("b", "a * 2"));
+		graph.addNode(createNode("a", "x + 1"));
+		assertTrue(graph.isValid());
+		assertEquals("", graph.describeProblems());
+
+		Map<String, Double> variables = new HashMap<>();
+		variables.put("x", 2d);
+		variables.put("y", 0d);
+		variables.put("z", 0d);
+		graph.build().executeCalculation(variables);
+		assertEquals(9d, variables.get("level"), 0d);
+	}
+
+	@Test
+	public void testCycle () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("level", "a"));
+		graph.addNode(createNode("a", "b + x"));
+		graph.addNode(createNode("b", "a"));
+		assertFalse(graph.isValid());
+		assertEquals(Collections.singletonList(Arrays.asList("a", "b")), graph.getCycles());
+	}
+
+	@Test
+	public void testMissingVariable () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("level", "a + c"));
+		graph.addNode(createNode("a", "x"));
+		assertFalse(graph.isValid());
+		assertEquals(Collections.singleton("c"), graph.getMissingVariables().get("level"));
+	}
+
+	@Test
+	public void testMissingResult () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("a", "x"));
+		assertFalse(graph.isValid());
+		assertEquals(Collections.singleton("a"), graph.getUnusedNodes());
+	}
+
+	@Test
+	public void testUnusedNodesAreLeftOut () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("level", "x"));
+		graph.addNode(createNode("c", "b"));
+		assertTrue(graph.isValid());
+		assertEquals(Collections.singleton("c"), graph.getUnusedNodes());
+
+		Map<String, Double> variables = new HashMap<>();
+		variables.put("x", 3d);
+		variables.put("y", 0d);
+		variables.put("z", 0d);
+		graph.build().executeCalculation(variables);
+		assertEquals(3d, variables.get("level"), 0d);
+		assertFalse(variables.containsKey("c"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateVariable () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("x", "1"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBuildInvalid () {
+		CalculationGraph graph = new CalculationGraph(INPUTS, "level");
+		graph.addNode(createNode("level", "level + 1"));
+		graph.build();
+	}
+}
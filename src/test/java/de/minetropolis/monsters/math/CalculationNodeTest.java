@@ -21,6 +21,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import net.objecthunter.exp4j.Expression;
 import net.objecthunter.exp4j.ExpressionBuilder;
 import org.junit.Test;
@@ -68,4 +71,32 @@ public class CalculationNodeTest {
 		assertEquals(14d, variables.get("level"), 0d);
 	}
 
+	@Test
+	public void testConcurrentEvaluation () throws Exception {
+		ExpressionCache cache = new ExpressionCache();
+		Set<String> variableNames = new HashSet<>(Arrays.asList("x"));
+		CalculationNode first = new CalculationNode("double", cache.get("x*2", variableNames));
+		CalculationNode second = new CalculationNode("twice", cache.get("x * 2", variableNames));
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] results = new Future<?>[4];
+			for (int thread = 0; thread < results.length; thread++) {
+				double x = thread;
+				CalculationNode node = thread % 2 == 0 ? first : second;
+				results[thread] = pool.submit(() -> {
+					Map<String, Double> variables = new HashMap<>();
+					variables.put("x", x);
+					for (int run = 0; run < 10000; run++) {
+						assertEquals(x * 2, node.calculateVariable(variables), 0d);
+					}
+				});
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Minetropolis
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minetropolis.monsters.math;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import net.objecthunter.exp4j.Expression;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ExpressionCacheTest {
+
+	private static final Set<String> VARIABLES = new HashSet<>(Arrays.asList("level", "x", "y", "z"));
+
+	public ExpressionCacheTest () {
+	}
+
+	@Test
+	public void testEqualExpressionsAreShared () {
+		ExpressionCache cache = new ExpressionCache();
+		Expression expression = cache.get("1 + randomInt(3)", VARIABLES);
+		assertSame(expression, cache.get("1+randomInt( 3 )", VARIABLES));
+		assertSame(expression, cache.get(" 1 +\trandomInt(3) ", new HashSet<>(VARIABLES)));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testDifferentVariablesAreNotShared () {
+		ExpressionCache cache = new ExpressionCache();
+		Expression expression = cache.get("level * 2", VARIABLES);
+		assertNotSame(expression, cache.get("level * 2", new HashSet<>(Arrays.asList("level"))));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testSharedExpressionEvaluatesWithAdditionalOperations () {
+		ExpressionCache cache = new ExpressionCache();
+		Expression expression = cache.get("(level > 30) * 0.01 + 0.01 * min(50, level)", VARIABLES);
+		expression.setVariable("level", 40d);
+		assertEquals(0.41d, expression.evaluate(), 1e-9d);
+	}
+
+	@Test
+	public void testSharedExpressionKeepsVariablesPerThread () throws InterruptedException {
+		Expression expression = new ExpressionCache().get("level * 2", VARIABLES);
+		expression.setVariable("level", 1d);
+		Thread other = new Thread(() -> expression.setVariable("level", 5d));
+		other.start();
+		other.join();
+		assertEquals(2d, expression.evaluate(), 0d);
+	}
+
+	@Test
+	public void testNormalizeKeepsSeparatingWhitespace () {
+		assertEquals("1+randomInt(3)", ExpressionCache.normalize("  1 + randomInt ( 3 )  "));
+		assertEquals("level 2", ExpressionCache.normalize("level   2"));
+		assertEquals("-1", ExpressionCache.normalize("-1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownVariable () {
+		new ExpressionCache().get("levelHorizontal + 1", VARIABLES);
+	}
+}